@@ -0,0 +1,17 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import android.os.IBinder;
+import android.os.IInterface;
+import android.support.annotation.NonNull;
+
+/**
+ * Converts {@link IBinder} of a connected IPC service into the service's interface. In case of
+ * AIDL interfaces, implementations will usually delegate to the generated
+ * <code>Stub.asInterface(IBinder)</code> method.
+ * @param <T> the interface of IPC service
+ */
+public interface BinderConverter<T extends IInterface> {
+
+    @NonNull
+    T asInterface(@NonNull IBinder binder);
+}
@@ -0,0 +1,53 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holder of the thread which performs blocking (un)binding on behalf of
+ * {@link ReconnectScheduler}. Binding involves IPC with the system, therefore it must not be
+ * executed on the shared {@link ConnectorScheduler} thread. The executor is shared by all
+ * connectors - reconnection attempts are rare, and a single thread serializes them. The thread is
+ * retired after being idle for a while.
+ */
+final class BindingExecutor {
+
+    private static final String THREAD_NAME = "IpcServiceConnector-binding";
+
+    private static final long KEEP_ALIVE_TIME = 30; // seconds
+
+    private BindingExecutor() {}
+
+    /**
+     * @return the shared executor (created lazily upon first call)
+     */
+    public static ExecutorService get() {
+        return Holder.EXECUTOR;
+    }
+
+    private static class Holder {
+
+        private static final ThreadPoolExecutor EXECUTOR = createExecutor();
+
+        private static ThreadPoolExecutor createExecutor() {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    1, 1,
+                    KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, THREAD_NAME);
+                            // the executor must not prevent the process from exiting
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+}
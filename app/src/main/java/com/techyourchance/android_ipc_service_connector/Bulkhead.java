@@ -0,0 +1,254 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bulkhead which limits the number of calls executed concurrently through
+ * {@link IpcServiceConnector}. It can be attached using
+ * {@link IpcServiceConnector#setBulkhead(Bulkhead)}.<br><br>
+ *
+ * Binder thread pools of IPC services are small, therefore an unbounded number of concurrent
+ * calls would exhaust service's pool and increase the latency of all callers. Calls above the
+ * limit are queued in FIFO order for a bounded period of time; calls which can't be queued, or
+ * which wait in the queue for too long, are rejected.<br><br>
+ *
+ * When a call completes, its permit is handed directly to the oldest queued call, therefore
+ * queued calls can't be overtaken by newly arriving calls.
+ */
+public class Bulkhead {
+
+    /**
+     * When the queue is full, newly arriving calls are rejected
+     */
+    public static final int REJECTION_POLICY_REJECT_NEWEST = 0;
+
+    /**
+     * When the queue is full, the oldest queued call is rejected in order to make room for
+     * the newly arriving call. Suitable when fresh results are more valuable than stale ones.
+     */
+    public static final int REJECTION_POLICY_REJECT_OLDEST = 1;
+
+    static final int ACQUIRE_RESULT_ACQUIRED = 0;
+    static final int ACQUIRE_RESULT_REJECTED = 1;
+    static final int ACQUIRE_RESULT_INTERRUPTED = 2;
+
+    private static final int WAITER_STATUS_WAITING = 0;
+    private static final int WAITER_STATUS_GRANTED = 1;
+    private static final int WAITER_STATUS_REJECTED = 2;
+
+    private final int mMaxConcurrentCalls;
+    private final int mMaxQueuedCalls;
+    private final long mMaxQueueTime;
+    private final int mRejectionPolicy;
+
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    // guarded by mLock
+    private final ArrayDeque<Waiter> mQueue = new ArrayDeque<>();
+    private int mInFlightCalls = 0;
+    private int mMaxQueueDepth = 0;
+
+    private final AtomicLong mRejectedCalls = new AtomicLong(0);
+    private final LatencyHistogram mQueueTime = new LatencyHistogram();
+
+    /**
+     * @param maxConcurrentCalls the maximal number of calls executed concurrently
+     * @param maxQueuedCalls the maximal number of calls waiting for execution (can be zero)
+     * @param maxQueueTime the maximal period of time (in milliseconds) a call can wait in the
+     *                     queue before it is rejected
+     * @param rejectionPolicy either {@link #REJECTION_POLICY_REJECT_NEWEST} or
+     *                        {@link #REJECTION_POLICY_REJECT_OLDEST}
+     */
+    public Bulkhead(int maxConcurrentCalls, int maxQueuedCalls, long maxQueueTime,
+                    int rejectionPolicy) {
+        if (maxConcurrentCalls <= 0 || maxQueuedCalls < 0 || maxQueueTime < 0) {
+            throw new IllegalArgumentException("invalid limits");
+        }
+        if (rejectionPolicy != REJECTION_POLICY_REJECT_NEWEST
+                && rejectionPolicy != REJECTION_POLICY_REJECT_OLDEST) {
+            throw new IllegalArgumentException("invalid rejection policy: " + rejectionPolicy);
+        }
+
+        mMaxConcurrentCalls = maxConcurrentCalls;
+        mMaxQueuedCalls = maxQueuedCalls;
+        mMaxQueueTime = TimeUnit.MILLISECONDS.toNanos(maxQueueTime);
+        mRejectionPolicy = rejectionPolicy;
+    }
+
+    /**
+     * @return bulkhead which allows 8 concurrent calls (about half of the default binder thread
+     *         pool), and queues up to 16 calls for up to 500ms rejecting the newest calls
+     */
+    public static Bulkhead createDefault() {
+        return new Bulkhead(8, 16, 500, REJECTION_POLICY_REJECT_NEWEST);
+    }
+
+    /**
+     * @return the number of calls currently executed through this bulkhead, including calls
+     *         whose callers stopped waiting while their binder transactions are still in progress
+     */
+    public int getInFlightCallsCount() {
+        mLock.lock();
+        try {
+            return mInFlightCalls;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of calls currently waiting in the queue
+     */
+    public int getQueueDepth() {
+        mLock.lock();
+        try {
+            return mQueue.size();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return the maximal number of calls which waited in the queue at the same time
+     */
+    public int getMaxQueueDepth() {
+        mLock.lock();
+        try {
+            return mMaxQueueDepth;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of calls which were rejected by this bulkhead
+     */
+    public long getRejectedCallsCount() {
+        return mRejectedCalls.get();
+    }
+
+    /**
+     * @return distribution of the time (in nanoseconds) calls spent in the queue
+     */
+    @NonNull
+    public LatencyHistogram.Snapshot getQueueTime() {
+        return mQueueTime.getSnapshot();
+    }
+
+    /**
+     * Acquire a permit to execute a call, waiting in the queue if required. If the permit is
+     * acquired, it MUST be released with {@link #release()}.
+     * @param deadline the value of {@link System#nanoTime()} after which the caller is no longer
+     *                 interested in the permit
+     * @return one of ACQUIRE_RESULT_* constants. If the calling thread is interrupted, its
+     *         interrupted status is preserved.
+     */
+    int acquire(long deadline) {
+        mLock.lock();
+        try {
+            if (mInFlightCalls < mMaxConcurrentCalls && mQueue.isEmpty()) {
+                mInFlightCalls++;
+                return ACQUIRE_RESULT_ACQUIRED;
+            }
+
+            if (mQueue.size() >= mMaxQueuedCalls) {
+                if (mRejectionPolicy == REJECTION_POLICY_REJECT_OLDEST && !mQueue.isEmpty()) {
+                    Waiter oldestWaiter = mQueue.poll();
+                    oldestWaiter.mStatus = WAITER_STATUS_REJECTED;
+                    oldestWaiter.mCondition.signal();
+                } else {
+                    mRejectedCalls.incrementAndGet();
+                    return ACQUIRE_RESULT_REJECTED;
+                }
+            }
+
+            long queueStartTime = System.nanoTime();
+            long queueDeadline = Math.min(deadline, queueStartTime + mMaxQueueTime);
+
+            Waiter waiter = new Waiter(mLock.newCondition());
+            mQueue.add(waiter);
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, mQueue.size());
+
+            boolean interrupted = false;
+            while (waiter.mStatus == WAITER_STATUS_WAITING) {
+                long remainingTime = queueDeadline - System.nanoTime();
+                if (remainingTime <= 0) {
+                    mQueue.remove(waiter);
+                    waiter.mStatus = WAITER_STATUS_REJECTED;
+                    break;
+                }
+                try {
+                    waiter.mCondition.awaitNanos(remainingTime);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    if (waiter.mStatus == WAITER_STATUS_WAITING) {
+                        mQueue.remove(waiter);
+                    }
+                    break;
+                }
+            }
+
+            mQueueTime.record(System.nanoTime() - queueStartTime);
+
+            if (interrupted) {
+                // restore interrupted status (was cleared by awaitNanos())
+                Thread.currentThread().interrupt();
+                if (waiter.mStatus == WAITER_STATUS_GRANTED) {
+                    releaseLocked(); // the permit was handed to this call, but it won't be used
+                }
+                return ACQUIRE_RESULT_INTERRUPTED;
+            }
+
+            if (waiter.mStatus == WAITER_STATUS_GRANTED) {
+                return ACQUIRE_RESULT_ACQUIRED;
+            } else {
+                mRejectedCalls.incrementAndGet();
+                return ACQUIRE_RESULT_REJECTED;
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Release the permit acquired with {@link #acquire(long)}
+     */
+    void release() {
+        mLock.lock();
+        try {
+            releaseLocked();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void releaseLocked() {
+        Waiter nextWaiter = mQueue.poll();
+        if (nextWaiter != null) {
+            // hand the permit over - the number of calls in flight doesn't change
+            nextWaiter.mStatus = WAITER_STATUS_GRANTED;
+            nextWaiter.mCondition.signal();
+        } else {
+            mInFlightCalls--;
+        }
+    }
+
+
+    private static class Waiter {
+
+        private final Condition mCondition;
+
+        // guarded by mLock
+        private int mStatus = WAITER_STATUS_WAITING;
+
+        private Waiter(@NonNull Condition condition) {
+            mCondition = condition;
+        }
+    }
+}
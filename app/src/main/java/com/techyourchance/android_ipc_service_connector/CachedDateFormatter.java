@@ -0,0 +1,57 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Formats times using {@link FastDateFormatter} and caches the most recently formatted second.
+ * Formatted values change once per second, therefore repeated formatting of times within the same
+ * second returns the cached String without any work or allocation.<br><br>
+ *
+ * The cache is an immutable pair published through a volatile field, therefore a single instance
+ * can be shared between threads without locking. Concurrent refreshes just produce equal values.
+ */
+public final class CachedDateFormatter {
+
+    private final FastDateFormatter mDateFormatter;
+
+    private volatile CachedDate mCachedDate = new CachedDate(Long.MIN_VALUE, "");
+
+    public CachedDateFormatter() {
+        this(new FastDateFormatter());
+    }
+
+    public CachedDateFormatter(@NonNull FastDateFormatter dateFormatter) {
+        mDateFormatter = dateFormatter;
+    }
+
+    /**
+     * @param millis the time to format (milliseconds since epoch)
+     * @return the formatted time; the same instance is returned for all times within a second
+     */
+    @NonNull
+    public String format(long millis) {
+        long second = millis >= 0 ? millis / 1000 : (millis - 999) / 1000;
+
+        CachedDate cachedDate = mCachedDate;
+        if (cachedDate.mSecond != second) {
+            cachedDate = new CachedDate(second, mDateFormatter.format(millis));
+            mCachedDate = cachedDate;
+        }
+        return cachedDate.mText;
+    }
+
+
+    /**
+     * Immutable pair of a second (since epoch) and its formatted representation
+     */
+    private static final class CachedDate {
+
+        private final long mSecond;
+        private final String mText;
+
+        private CachedDate(long second, String text) {
+            mSecond = second;
+            mText = text;
+        }
+    }
+}
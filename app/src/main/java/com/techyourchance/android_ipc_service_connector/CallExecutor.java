@@ -0,0 +1,63 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holder of the thread pool which executes calls made through
+ * {@link IpcServiceConnector#call(IpcCall, long)}. The pool is shared by all connectors. Threads
+ * are created on demand and retired after being idle for a while - a thread whose binder
+ * transaction outlived the caller's deadline stays busy until the transaction completes.<br><br>
+ *
+ * Each thread either serves a caller which is blocked waiting for it, or is "stranded" in a
+ * transaction its caller gave up on. The number of stranded calls is capped by each connector
+ * (see {@link IpcServiceConnector#setMaxStrandedCalls(int)}), and the pool is bounded by
+ * {@link #MAX_THREADS} in order to protect the process from many callers and connectors at
+ * once. The pool doesn't queue tasks - submitting a task while all threads are busy throws
+ * {@link RejectedExecutionException}.
+ */
+final class CallExecutor {
+
+    private static final String THREAD_NAME_PREFIX = "IpcServiceConnector-call-";
+
+    private static final long KEEP_ALIVE_TIME = 30; // seconds
+
+    /**
+     * The maximal number of threads in the pool. Binder thread pool of a service process has 16
+     * threads by default, therefore more concurrent calls wouldn't be served any faster anyway.
+     */
+    public static final int MAX_THREADS = 32;
+
+    private CallExecutor() {}
+
+    /**
+     * @return the shared executor (created lazily upon first call)
+     */
+    public static ExecutorService get() {
+        return Holder.EXECUTOR;
+    }
+
+    private static class Holder {
+
+        private static final AtomicInteger sThreadsCount = new AtomicInteger(0);
+
+        private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(
+                0, MAX_THREADS,
+                KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                THREAD_NAME_PREFIX + sThreadsCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+}
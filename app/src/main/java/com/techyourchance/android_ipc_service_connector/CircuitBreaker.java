@@ -0,0 +1,295 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker which can be attached to {@link IpcServiceConnector} using
+ * {@link IpcServiceConnector#setCircuitBreaker(CircuitBreaker)}.<br><br>
+ *
+ * The breaker tracks the outcomes of the recent calls in a sliding window. When the rate of
+ * failed calls, or the rate of slow calls, reaches its threshold, the breaker opens and calls
+ * are rejected immediately. After the specified period of time the breaker becomes half-open and
+ * permits a single trial call - the breaker closes if the trial call succeeds, and opens again
+ * otherwise.<br><br>
+ *
+ * Checking whether a call is permitted is lock-free. Outcomes of calls are recorded while
+ * holding this object's monitor.<br><br>
+ *
+ * Each permission is tagged with the generation of the state it was granted in. Outcomes of calls
+ * permitted before the last transition are ignored, therefore a call which started while the
+ * breaker was closed, and completed after it became half-open, can't close the breaker in place
+ * of the trial call.
+ */
+public class CircuitBreaker {
+
+    /**
+     * Calls are permitted and their outcomes are tracked
+     */
+    public static final int STATE_CLOSED = 0;
+
+    /**
+     * Calls are rejected
+     */
+    public static final int STATE_OPEN = 1;
+
+    /**
+     * A single trial call is in progress; other calls are rejected
+     */
+    public static final int STATE_HALF_OPEN = 2;
+
+    /**
+     * Returned by {@link #tryAcquirePermission()} when the call should be rejected
+     */
+    public static final long NO_PERMISSION = -1;
+
+    private static final int STATE_BITS = 2;
+    private static final long STATE_MASK = (1 << STATE_BITS) - 1;
+
+    private static final byte OUTCOME_SUCCESS = 0;
+    private static final byte OUTCOME_FAILURE = 1;
+    private static final byte OUTCOME_SLOW = 2;
+
+    private final double mFailureRateThreshold;
+    private final double mSlowCallRateThreshold;
+    private final long mSlowCallDuration;
+    private final int mMinimumCalls;
+    private final long mOpenDuration;
+
+    /**
+     * The state in the low bits, and the generation (incremented upon each transition) in the
+     * high bits
+     */
+    private final AtomicLong mStateAndGeneration = new AtomicLong(STATE_CLOSED);
+
+    /**
+     * The value of {@link System#nanoTime()} at which the open breaker will permit a trial call
+     */
+    private volatile long mOpenUntil = 0;
+
+    private final AtomicLong mRejectedCalls = new AtomicLong(0);
+
+    private volatile IpcTracer mTracer = IpcTracer.NONE;
+
+    // sliding window of outcomes; guarded by this
+    private final byte[] mOutcomes;
+    private int mNextOutcomeIndex = 0;
+    private int mRecordedOutcomes = 0;
+    private int mFailures = 0;
+    private int mSlowCalls = 0;
+
+    /**
+     * @param windowSize the number of the most recent calls tracked by the breaker
+     * @param minimumCalls the minimal number of tracked calls required in order to compute rates
+     * @param failureRateThreshold the rate (0, 1] of failed calls at which the breaker opens
+     * @param slowCallDuration calls which take longer than this period (in milliseconds) are
+     *                         considered slow
+     * @param slowCallRateThreshold the rate (0, 1] of slow calls at which the breaker opens
+     * @param openDuration the period of time (in milliseconds) the breaker stays open before
+     *                     permitting a trial call
+     */
+    public CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold,
+                          long slowCallDuration, double slowCallRateThreshold,
+                          long openDuration) {
+        if (windowSize <= 0 || minimumCalls <= 0 || minimumCalls > windowSize) {
+            throw new IllegalArgumentException("invalid window size or minimum calls");
+        }
+        if (failureRateThreshold <= 0 || failureRateThreshold > 1
+                || slowCallRateThreshold <= 0 || slowCallRateThreshold > 1) {
+            throw new IllegalArgumentException("invalid rate thresholds");
+        }
+        if (slowCallDuration <= 0 || openDuration <= 0) {
+            throw new IllegalArgumentException("invalid durations");
+        }
+
+        mOutcomes = new byte[windowSize];
+        mMinimumCalls = minimumCalls;
+        mFailureRateThreshold = failureRateThreshold;
+        mSlowCallDuration = TimeUnit.MILLISECONDS.toNanos(slowCallDuration);
+        mSlowCallRateThreshold = slowCallRateThreshold;
+        mOpenDuration = TimeUnit.MILLISECONDS.toNanos(openDuration);
+    }
+
+    /**
+     * @return breaker which tracks 20 calls, opens at 50% of failures or 50% of calls slower than
+     *         1s (once at least 5 calls were tracked), and permits a trial call after 5s
+     */
+    public static CircuitBreaker createDefault() {
+        return new CircuitBreaker(20, 5, 0.5, 1000, 0.5, 5000);
+    }
+
+    /**
+     * Set the tracer which will be notified about state changes of this breaker
+     */
+    void setTracer(@NonNull IpcTracer tracer) {
+        mTracer = tracer;
+    }
+
+    public int getState() {
+        return stateOf(mStateAndGeneration.get());
+    }
+
+    /**
+     * @return true if the breaker is open and a trial call isn't permitted yet
+     */
+    public boolean isOpen() {
+        return getState() == STATE_OPEN && System.nanoTime() < mOpenUntil;
+    }
+
+    /**
+     * @return the number of calls which were rejected by this breaker
+     */
+    public long getRejectedCallsCount() {
+        return mRejectedCalls.get();
+    }
+
+    /**
+     * Check whether a call is permitted. If a permission is returned, the caller MUST report the
+     * outcome of the call using either {@link #onCallCompleted(long, boolean, long)} or
+     * {@link #onCallAbandoned(long)}.
+     * @return the permission to execute the call, or {@link #NO_PERMISSION} if the call should be
+     *         rejected
+     */
+    public long tryAcquirePermission() {
+        long stateAndGeneration = mStateAndGeneration.get();
+        switch (stateOf(stateAndGeneration)) {
+            case STATE_CLOSED:
+                return stateAndGeneration;
+            case STATE_OPEN:
+                if (System.nanoTime() >= mOpenUntil) {
+                    long trial = nextGeneration(stateAndGeneration, STATE_HALF_OPEN);
+                    if (mStateAndGeneration.compareAndSet(stateAndGeneration, trial)) {
+                        mTracer.trace(IpcTracer.EVENT_CIRCUIT_STATE_CHANGED,
+                                STATE_OPEN, STATE_HALF_OPEN);
+                        return trial; // the only permission of this generation
+                    }
+                }
+                break;
+            case STATE_HALF_OPEN:
+                break;
+            default:
+                throw new IllegalStateException("invalid state: " + stateOf(stateAndGeneration));
+        }
+        mRejectedCalls.incrementAndGet();
+        return NO_PERMISSION;
+    }
+
+    /**
+     * Report the outcome of a permitted call
+     * @param permission the permission returned by {@link #tryAcquirePermission()}
+     * @param successful whether the call succeeded
+     * @param latency the duration of the call (in nanoseconds)
+     */
+    public synchronized void onCallCompleted(long permission, boolean successful, long latency) {
+        long stateAndGeneration = mStateAndGeneration.get();
+        if (permission != stateAndGeneration) {
+            return; // the breaker changed its state while this call was in progress
+        }
+
+        byte outcome = !successful ? OUTCOME_FAILURE :
+                latency > mSlowCallDuration ? OUTCOME_SLOW : OUTCOME_SUCCESS;
+
+        if (stateOf(stateAndGeneration) == STATE_HALF_OPEN) {
+            if (outcome == OUTCOME_SUCCESS) {
+                resetWindow();
+                transition(stateAndGeneration, STATE_CLOSED);
+            } else {
+                open(stateAndGeneration);
+            }
+            return;
+        }
+
+        recordOutcome(outcome);
+
+        if (mRecordedOutcomes >= mMinimumCalls
+                && (mFailures >= mFailureRateThreshold * mRecordedOutcomes
+                        || mSlowCalls >= mSlowCallRateThreshold * mRecordedOutcomes)) {
+            open(stateAndGeneration);
+        }
+    }
+
+    /**
+     * Report that a permitted call was abandoned without an outcome (e.g. the caller was
+     * interrupted). If this was the trial call, another trial call will be permitted.
+     * @param permission the permission returned by {@link #tryAcquirePermission()}
+     */
+    public synchronized void onCallAbandoned(long permission) {
+        long stateAndGeneration = mStateAndGeneration.get();
+        if (permission == stateAndGeneration && stateOf(stateAndGeneration) == STATE_HALF_OPEN) {
+            mOpenUntil = System.nanoTime();
+            transition(stateAndGeneration, STATE_OPEN);
+        }
+    }
+
+    private void open(long stateAndGeneration) {
+        resetWindow();
+        mOpenUntil = System.nanoTime() + mOpenDuration;
+        transition(stateAndGeneration, STATE_OPEN);
+    }
+
+    /**
+     * Called while holding this object's monitor. The only transition which doesn't hold the
+     * monitor is OPEN -> HALF_OPEN, therefore transitions from other states always succeed.
+     */
+    private void transition(long stateAndGeneration, int newState) {
+        mStateAndGeneration.set(nextGeneration(stateAndGeneration, newState));
+        mTracer.trace(IpcTracer.EVENT_CIRCUIT_STATE_CHANGED,
+                stateOf(stateAndGeneration), newState);
+    }
+
+    private static int stateOf(long stateAndGeneration) {
+        return (int) (stateAndGeneration & STATE_MASK);
+    }
+
+    private static long nextGeneration(long stateAndGeneration, int newState) {
+        return (((stateAndGeneration >>> STATE_BITS) + 1) << STATE_BITS) | newState;
+    }
+
+    private void recordOutcome(byte outcome) {
+        if (mRecordedOutcomes == mOutcomes.length) {
+            // evict the oldest outcome
+            byte evicted = mOutcomes[mNextOutcomeIndex];
+            if (evicted == OUTCOME_FAILURE) {
+                mFailures--;
+            } else if (evicted == OUTCOME_SLOW) {
+                mSlowCalls--;
+            }
+        } else {
+            mRecordedOutcomes++;
+        }
+
+        mOutcomes[mNextOutcomeIndex] = outcome;
+        mNextOutcomeIndex = (mNextOutcomeIndex + 1) % mOutcomes.length;
+
+        if (outcome == OUTCOME_FAILURE) {
+            mFailures++;
+        } else if (outcome == OUTCOME_SLOW) {
+            mSlowCalls++;
+        }
+    }
+
+    private void resetWindow() {
+        mNextOutcomeIndex = 0;
+        mRecordedOutcomes = 0;
+        mFailures = 0;
+        mSlowCalls = 0;
+    }
+
+    /**
+     * @return human readable representation of breaker's state for logging purposes
+     */
+    public static String getStateName(int state) {
+        switch (state) {
+            case STATE_CLOSED:
+                return "STATE_CLOSED";
+            case STATE_OPEN:
+                return "STATE_OPEN";
+            case STATE_HALF_OPEN:
+                return "STATE_HALF_OPEN";
+            default:
+                throw new IllegalArgumentException("invalid state: " + state);
+        }
+    }
+}
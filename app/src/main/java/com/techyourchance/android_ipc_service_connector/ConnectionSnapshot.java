@@ -0,0 +1,44 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import android.os.IInterface;
+import android.support.annotation.Nullable;
+
+/**
+ * Immutable snapshot of {@link IpcServiceConnector}'s state along with the interface of the
+ * connected IPC service. Both values are published together, therefore the service obtained
+ * from a snapshot always corresponds to the snapshot's state.
+ * @param <T> the interface of IPC service
+ */
+public final class ConnectionSnapshot<T extends IInterface> {
+
+    private final int mState;
+    private final T mService;
+
+    ConnectionSnapshot(int state, @Nullable T service) {
+        mState = state;
+        mService = service;
+    }
+
+    /**
+     * @return connector's state at the time the snapshot was taken
+     */
+    public int getState() {
+        return mState;
+    }
+
+    /**
+     * @return the interface of IPC service if the state is
+     *         {@link IpcServiceConnector#STATE_BOUND_CONNECTED}; null otherwise
+     */
+    @Nullable
+    public T getService() {
+        return mService;
+    }
+
+    /**
+     * @return true if the state is {@link IpcServiceConnector#STATE_BOUND_CONNECTED}
+     */
+    public boolean isConnected() {
+        return mState == IpcServiceConnector.STATE_BOUND_CONNECTED;
+    }
+}
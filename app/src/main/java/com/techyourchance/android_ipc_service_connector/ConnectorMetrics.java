@@ -0,0 +1,163 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection and wait statistics of a single {@link IpcServiceConnector}. All latencies are in
+ * nanoseconds.
+ */
+public class ConnectorMetrics {
+
+    private final LatencyHistogram mTimeToConnect = new LatencyHistogram();
+    private final LatencyHistogram mTimeToRecover = new LatencyHistogram();
+    private final LatencyHistogram mWaitTime = new LatencyHistogram();
+    private final LatencyHistogram mCallLatency = new LatencyHistogram();
+
+    private final AtomicLong mDisconnects = new AtomicLong(0);
+    private final AtomicLong mWaitTimeouts = new AtomicLong(0);
+    private final AtomicLong mCallTimeouts = new AtomicLong(0);
+
+    /**
+     * Record the time between binding and {@link IpcServiceConnector#STATE_BOUND_CONNECTED}
+     */
+    void recordTimeToConnect(long latency) {
+        mTimeToConnect.record(latency);
+    }
+
+    /**
+     * Record the time between {@link IpcServiceConnector#STATE_BOUND_DISCONNECTED} and the
+     * subsequent {@link IpcServiceConnector#STATE_BOUND_CONNECTED}
+     */
+    void recordTimeToRecover(long latency) {
+        mTimeToRecover.record(latency);
+    }
+
+    /**
+     * Record the time a thread spent blocked waiting for connector's state
+     */
+    void recordWaitTime(long latency) {
+        mWaitTime.record(latency);
+    }
+
+    /**
+     * Record the time a caller waited for the result of a call executed through the connector
+     */
+    void recordCallLatency(long latency) {
+        mCallLatency.record(latency);
+    }
+
+    void incrementCallTimeouts() {
+        mCallTimeouts.incrementAndGet();
+    }
+
+    void incrementDisconnects() {
+        mDisconnects.incrementAndGet();
+    }
+
+    void incrementWaitTimeouts() {
+        mWaitTimeouts.incrementAndGet();
+    }
+
+    @NonNull
+    public Snapshot getSnapshot() {
+        return new Snapshot(
+                mTimeToConnect.getSnapshot(),
+                mTimeToRecover.getSnapshot(),
+                mWaitTime.getSnapshot(),
+                mCallLatency.getSnapshot(),
+                mDisconnects.get(),
+                mWaitTimeouts.get(),
+                mCallTimeouts.get());
+    }
+
+
+    /**
+     * Immutable copy of connector's metrics
+     */
+    public static final class Snapshot {
+
+        private final LatencyHistogram.Snapshot mTimeToConnect;
+        private final LatencyHistogram.Snapshot mTimeToRecover;
+        private final LatencyHistogram.Snapshot mWaitTime;
+        private final LatencyHistogram.Snapshot mCallLatency;
+        private final long mDisconnects;
+        private final long mWaitTimeouts;
+        private final long mCallTimeouts;
+
+        private Snapshot(LatencyHistogram.Snapshot timeToConnect,
+                         LatencyHistogram.Snapshot timeToRecover,
+                         LatencyHistogram.Snapshot waitTime,
+                         LatencyHistogram.Snapshot callLatency,
+                         long disconnects,
+                         long waitTimeouts,
+                         long callTimeouts) {
+            mTimeToConnect = timeToConnect;
+            mTimeToRecover = timeToRecover;
+            mWaitTime = waitTime;
+            mCallLatency = callLatency;
+            mDisconnects = disconnects;
+            mWaitTimeouts = waitTimeouts;
+            mCallTimeouts = callTimeouts;
+        }
+
+        /**
+         * @return distribution of the time between (re)binding and connection
+         */
+        public LatencyHistogram.Snapshot getTimeToConnect() {
+            return mTimeToConnect;
+        }
+
+        /**
+         * @return distribution of the time between disconnection and reconnection
+         */
+        public LatencyHistogram.Snapshot getTimeToRecover() {
+            return mTimeToRecover;
+        }
+
+        /**
+         * @return distribution of the time threads spent blocked in waits for connector's state
+         */
+        public LatencyHistogram.Snapshot getWaitTime() {
+            return mWaitTime;
+        }
+
+        /**
+         * @return distribution of the time callers waited for results of calls executed through
+         *         the connector
+         */
+        public LatencyHistogram.Snapshot getCallLatency() {
+            return mCallLatency;
+        }
+
+        public long getDisconnects() {
+            return mDisconnects;
+        }
+
+        /**
+         * @return the number of waits (both blocking and asynchronous) which timed out
+         */
+        public long getWaitTimeouts() {
+            return mWaitTimeouts;
+        }
+
+        /**
+         * @return the number of calls which exceeded their deadlines
+         */
+        public long getCallTimeouts() {
+            return mCallTimeouts;
+        }
+
+        @Override
+        public String toString() {
+            return "time to connect: [" + mTimeToConnect + "]" +
+                    "; time to recover: [" + mTimeToRecover + "]" +
+                    "; wait time: [" + mWaitTime + "]" +
+                    "; call latency: [" + mCallLatency + "]" +
+                    "; disconnects: " + mDisconnects +
+                    "; wait timeouts: " + mWaitTimeouts +
+                    "; call timeouts: " + mCallTimeouts;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Holder of a single timer thread which is shared by all instances of {@link IpcServiceConnector}.
+ * Tasks submitted to this scheduler MUST be short and MUST NOT block - they should either
+ * complete state bookkeeping, or hand the actual work over to another executor.
+ */
+final class ConnectorScheduler {
+
+    private static final String THREAD_NAME = "IpcServiceConnector-scheduler";
+
+    private ConnectorScheduler() {}
+
+    /**
+     * @return the shared scheduler (created lazily upon first call)
+     */
+    public static ScheduledExecutorService get() {
+        return Holder.SCHEDULER;
+    }
+
+    private static class Holder {
+
+        private static final ScheduledExecutorService SCHEDULER =
+                new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, THREAD_NAME);
+                        // the scheduler must not prevent the process from exiting
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+}
@@ -0,0 +1,178 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Bounded LRU cache of {@link PatternDateFormatter} instances keyed by (pattern, locale,
+ * time zone). Repeated requests for the same format reuse the compiled formatter instead of
+ * parsing the pattern again; when the cache is full, the least recently used formatter is
+ * evicted.<br><br>
+ *
+ * This class is thread-safe. Formatters are compiled outside of the lock, therefore concurrent
+ * misses for the same key might compile the pattern more than once (the last one is cached).
+ */
+public final class DateFormatterCache {
+
+    private final Object LOCK = new Object();
+
+    private final int mMaxSize;
+
+    // guarded by LOCK
+    private final LinkedHashMap<Key, PatternDateFormatter> mFormatters;
+    private long mHitsCount = 0;
+    private long mMissesCount = 0;
+
+    /**
+     * @param maxSize the maximal number of cached formatters
+     */
+    public DateFormatterCache(final int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("max size must be positive");
+        }
+        mMaxSize = maxSize;
+        mFormatters = new LinkedHashMap<Key, PatternDateFormatter>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, PatternDateFormatter> eldest) {
+                return size() > mMaxSize;
+            }
+        };
+    }
+
+    /**
+     * @return formatter of the given pattern; either a cached one, or a newly compiled one
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    @NonNull
+    public PatternDateFormatter get(@NonNull String pattern, @NonNull Locale locale,
+                                    @NonNull TimeZone timeZone) {
+        Key key = new Key(pattern, locale, timeZone.getID());
+
+        synchronized (LOCK) {
+            PatternDateFormatter formatter = mFormatters.get(key);
+            if (formatter != null) {
+                mHitsCount++;
+                return formatter;
+            }
+            mMissesCount++;
+        }
+
+        PatternDateFormatter formatter = new PatternDateFormatter(pattern, locale, timeZone);
+
+        synchronized (LOCK) {
+            mFormatters.put(key, formatter);
+        }
+        return formatter;
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    public int getSize() {
+        synchronized (LOCK) {
+            return mFormatters.size();
+        }
+    }
+
+    /**
+     * @return the number of requests which were served by a cached formatter
+     */
+    public long getHitsCount() {
+        synchronized (LOCK) {
+            return mHitsCount;
+        }
+    }
+
+    /**
+     * @return the number of requests which required compilation of the pattern
+     */
+    public long getMissesCount() {
+        synchronized (LOCK) {
+            return mMissesCount;
+        }
+    }
+
+    /**
+     * Parse locale from either IETF language tag (e.g. "en-US") or Java locale name
+     * (e.g. "en_US"). {@link Locale#forLanguageTag(String)} isn't available on all supported API
+     * levels, therefore only the language, the region and the variant are supported. Script
+     * subtag (four letters, e.g. "Hant" in "zh-Hant-TW") is skipped.
+     * @param localeName the name of the locale; null or empty name denotes the default locale
+     */
+    @NonNull
+    public static Locale parseLocale(@Nullable String localeName) {
+        if (localeName == null || localeName.isEmpty()) {
+            return Locale.getDefault();
+        }
+
+        String[] parts = localeName.split("[-_]");
+        String language = parts[0];
+
+        int next = 1;
+        if (next < parts.length && isScript(parts[next])) {
+            next++;
+        }
+
+        String region = next < parts.length ? parts[next++] : "";
+
+        StringBuilder variant = new StringBuilder();
+        for (; next < parts.length; next++) {
+            if (variant.length() > 0) {
+                variant.append('_');
+            }
+            variant.append(parts[next]);
+        }
+
+        return new Locale(language, region, variant.toString());
+    }
+
+    private static boolean isScript(String subtag) {
+        if (subtag.length() != 4) {
+            return false;
+        }
+        for (int i = 0; i < subtag.length(); i++) {
+            if (!Character.isLetter(subtag.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static final class Key {
+
+        private final String mPattern;
+        private final Locale mLocale;
+        private final String mTimeZoneId;
+
+        private Key(String pattern, Locale locale, String timeZoneId) {
+            mPattern = pattern;
+            mLocale = locale;
+            mTimeZoneId = timeZoneId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return mPattern.equals(key.mPattern)
+                    && mLocale.equals(key.mLocale)
+                    && mTimeZoneId.equals(key.mTimeZoneId);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mPattern.hashCode();
+            result = 31 * result + mLocale.hashCode();
+            result = 31 * result + mTimeZoneId.hashCode();
+            return result;
+        }
+    }
+}
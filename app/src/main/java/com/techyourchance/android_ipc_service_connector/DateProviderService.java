@@ -3,14 +3,29 @@ package com.techyourchance.android_ipc_service_connector;
 import android.app.Service;
 import android.content.Intent;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteCallbackList;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
-import android.util.Log;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This service will run in a separate child process in order to simulate a real IPC service. The
@@ -21,6 +36,97 @@ public class DateProviderService extends Service {
 
     private static final String TAG = "DateProviderService";
 
+    private static final IpcTracer TRACER = BuildConfig.DEBUG ?
+            new TraceBuffer(TAG, 16, new LogcatTraceSink(TAG)) : IpcTracer.NONE;
+
+    private static final long MILLIS_PER_SECOND = 1000;
+
+    private static final int REQUEST_WORKERS_COUNT =
+            Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private static final int REQUEST_QUEUE_CAPACITY = 64;
+
+    private static final int FORMATTERS_CACHE_SIZE = 16;
+
+    private static final int ZONE_FORMATTERS_CACHE_SIZE = 32;
+
+    private static final int MAX_ZONES_PER_REQUEST = 64;
+
+    private final CachedDateFormatter mDateFormatter = new CachedDateFormatter();
+
+    private final FastDateFormatter mSnapshotFormatter = new FastDateFormatter();
+    private final AtomicLong mSnapshotSequence = new AtomicLong(0);
+
+    private final DateFormatterCache mFormattersCache =
+            new DateFormatterCache(FORMATTERS_CACHE_SIZE);
+
+    /**
+     * Formatters of getDate() pattern in specific time zones, keyed by zone ID. Resolution of zone
+     * rules is relatively expensive, and each formatter caches the formatted day, therefore
+     * formatters are reused between requests. Null values denote unknown zone IDs.
+     */
+    private final Object mZoneFormattersLock = new Object();
+    private final LinkedHashMap<String, FastDateFormatter> mZoneFormatters =
+            new LinkedHashMap<String, FastDateFormatter>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, FastDateFormatter> eldest) {
+                    return size() > ZONE_FORMATTERS_CACHE_SIZE;
+                }
+            };
+
+    private final RemoteCallbackList<IDateListener> mDateListeners = new RemoteCallbackList<>();
+
+    private final Object mTimePageLock = new Object();
+
+    /**
+     * Created upon the first request for the time page; guarded by mTimePageLock, which also
+     * serializes writes (the page must have a single writer at a time)
+     */
+    private TimePageWriter mTimePageWriter;
+    private final FastDateFormatter mTimePageFormatter = new FastDateFormatter();
+    private final char[] mTimePageText = new char[mTimePageFormatter.getMaxLength()];
+
+    /**
+     * Clients which hold the time page, along with the recipients which release the page if they
+     * die. The page is written only while it's held by at least one client. Guarded by
+     * mTimePageLock.
+     */
+    private final HashMap<IBinder, IBinder.DeathRecipient> mTimePageHolders = new HashMap<>();
+
+    /**
+     * Processes asynchronous requests, such that binder threads are released immediately. The
+     * number of workers is bounded, and requests which don't fit into the queue are rejected.
+     */
+    private ThreadPoolExecutor mRequestExecutor;
+
+    /**
+     * Listeners are notified on this thread only (broadcasts of RemoteCallbackList must not
+     * overlap)
+     */
+    private HandlerThread mTickerThread;
+    private Handler mTickerHandler;
+
+    // accessed on ticker thread only
+    private boolean mTicking = false;
+    private long mLastTickSecond = Long.MIN_VALUE;
+
+    private final Runnable mStartTicking = new Runnable() {
+        @Override
+        public void run() {
+            if (!mTicking) {
+                mTicking = true;
+                scheduleNextTick();
+            }
+        }
+    };
+
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            tick();
+        }
+    };
+
     private final IDateProvider.Stub mBinder = new IDateProvider.Stub() {
         @Override
         public String getDate() throws RemoteException {
@@ -31,36 +137,99 @@ public class DateProviderService extends Service {
         public void crashService() throws RemoteException {
             DateProviderService.this.crashService();
         }
+
+        @Override
+        public long getTimeMillis() throws RemoteException {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public void registerDateListener(IDateListener listener) throws RemoteException {
+            DateProviderService.this.registerDateListener(listener);
+        }
+
+        @Override
+        public void unregisterDateListener(IDateListener listener) throws RemoteException {
+            mDateListeners.unregister(listener);
+        }
+
+        @Override
+        public ParcelFileDescriptor getTimePage(IBinder holder) throws RemoteException {
+            return DateProviderService.this.getTimePage(holder);
+        }
+
+        @Override
+        public void releaseTimePage(IBinder holder) throws RemoteException {
+            DateProviderService.this.releaseTimePage(holder);
+        }
+
+        @Override
+        public void requestDate(int requestId, IDateCallback callback) throws RemoteException {
+            DateProviderService.this.requestDate(requestId, callback);
+        }
+
+        @Override
+        public String formatDate(String pattern, String locale) throws RemoteException {
+            return DateProviderService.this.formatDate(pattern, locale);
+        }
+
+        @Override
+        public String[] getDates(String[] zoneIds) throws RemoteException {
+            return DateProviderService.this.getDates(zoneIds);
+        }
+
+        @Override
+        public DateSnapshot getDateSnapshot(boolean includeText) throws RemoteException {
+            return DateProviderService.this.getDateSnapshot(includeText);
+        }
+
+        @Override
+        public void ping() throws RemoteException {
+            // intentionally empty - the caller measures the round trip
+        }
     };
 
     @Override
     public void onCreate() {
-        Log.d(TAG, "onCreate()");
+        TRACER.trace(IpcTracer.EVENT_SERVICE_LIFECYCLE, IpcTracer.SERVICE_CALLBACK_ON_CREATE, 0);
         super.onCreate();
+        mTickerThread = new HandlerThread(TAG + "-ticker");
+        mTickerThread.start();
+        mTickerHandler = new Handler(mTickerThread.getLooper());
+        mRequestExecutor = createRequestExecutor();
     }
 
     @Override
     public void onDestroy() {
-        Log.d(TAG, "onDestroy()");
+        TRACER.trace(IpcTracer.EVENT_SERVICE_LIFECYCLE, IpcTracer.SERVICE_CALLBACK_ON_DESTROY, 0);
+        mDateListeners.kill();
+        synchronized (mTimePageLock) {
+            for (Map.Entry<IBinder, IBinder.DeathRecipient> holder : mTimePageHolders.entrySet()) {
+                holder.getKey().unlinkToDeath(holder.getValue(), 0);
+            }
+            mTimePageHolders.clear();
+        }
+        mTickerThread.quit();
+        mRequestExecutor.shutdownNow();
         super.onDestroy();
     }
 
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
-        Log.d(TAG, "onBind()");
+        TRACER.trace(IpcTracer.EVENT_SERVICE_LIFECYCLE, IpcTracer.SERVICE_CALLBACK_ON_BIND, 0);
         return mBinder;
     }
 
     @Override
     public boolean onUnbind(Intent intent) {
-        Log.d(TAG, "onUnbind()");
+        TRACER.trace(IpcTracer.EVENT_SERVICE_LIFECYCLE, IpcTracer.SERVICE_CALLBACK_ON_UNBIND, 0);
         return super.onUnbind(intent);
     }
 
     @Override
     public void onRebind(Intent intent) {
-        Log.d(TAG, "onRebind()");
+        TRACER.trace(IpcTracer.EVENT_SERVICE_LIFECYCLE, IpcTracer.SERVICE_CALLBACK_ON_REBIND, 0);
         super.onRebind(intent);
     }
 
@@ -75,10 +244,279 @@ public class DateProviderService extends Service {
         });
     }
 
+    private static ThreadPoolExecutor createRequestExecutor() {
+        final AtomicInteger threadsCount = new AtomicInteger(0);
+        return new ThreadPoolExecutor(
+                REQUEST_WORKERS_COUNT, REQUEST_WORKERS_COUNT,
+                0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(REQUEST_QUEUE_CAPACITY),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(runnable, TAG + "-worker-" + threadsCount.incrementAndGet());
+                    }
+                });
+    }
+
+    /**
+     * Called on a binder thread, which is released as soon as the request is queued.<br><br>
+     *
+     * The date itself is cached (see {@link CachedDateFormatter}), therefore the work offloaded
+     * to the pool is small today: the pool bounds the number of concurrently processed requests
+     * and keeps the cost of this call constant on binder threads, such that more expensive
+     * processing can be added to requests without affecting other transactions.
+     */
+    private void requestDate(final int requestId, final IDateCallback callback) {
+        if (callback == null) {
+            return;
+        }
+
+        try {
+            mRequestExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        callback.onDateReady(requestId, getDate());
+                    } catch (RemoteException e) {
+                        // the client died - nobody is interested in the result
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (mRequestExecutor.isShutdown()) {
+                // the service is being destroyed rather than overloaded - the client will be
+                // notified by the disconnection (like the clients whose requests were queued)
+                return;
+            }
+            try {
+                callback.onRequestRejected(requestId);
+            } catch (RemoteException e1) {
+                // the client died - nobody is interested in the result
+            }
+        }
+    }
+
+    private void registerDateListener(IDateListener listener) {
+        if (listener == null || !mDateListeners.register(listener)) {
+            return;
+        }
+
+        // the listener is oneway, therefore this call doesn't block the binder thread
+        try {
+            listener.onTimeChanged(System.currentTimeMillis());
+        } catch (RemoteException e) {
+            // the listener died - it was (or will be) removed by RemoteCallbackList
+        }
+
+        mTickerHandler.post(mStartTicking);
+    }
+
+    /**
+     * Register the holder of the time page and return read-only descriptor of the page. The page
+     * is written at second boundaries until the holder releases it or dies.
+     * @return the descriptor, or null if the page couldn't be created
+     */
+    @Nullable
+    private ParcelFileDescriptor getTimePage(final IBinder holder) {
+        if (holder == null) {
+            throw new IllegalArgumentException("holder must not be null");
+        }
+
+        // each replica runs in its own process, therefore each replica needs its own page
+        File timePageFile = new File(getFilesDir(), "time_page_" + getClass().getSimpleName());
+
+        try {
+            synchronized (mTimePageLock) {
+                if (mTimePageWriter == null) {
+                    mTimePageWriter = TimePageWriter.create(timePageFile);
+                }
+
+                if (!mTimePageHolders.containsKey(holder)) {
+                    IBinder.DeathRecipient deathRecipient = new IBinder.DeathRecipient() {
+                        @Override
+                        public void binderDied() {
+                            releaseTimePage(holder);
+                        }
+                    };
+                    try {
+                        holder.linkToDeath(deathRecipient, 0);
+                    } catch (RemoteException e) {
+                        return null; // the holder is already dead
+                    }
+                    mTimePageHolders.put(holder, deathRecipient);
+                }
+
+                // the page isn't written while it's not held, therefore it might be stale
+                writeTimePageLocked(System.currentTimeMillis());
+            }
+
+            mTickerHandler.post(mStartTicking);
+
+            return ParcelFileDescriptor.open(timePageFile, ParcelFileDescriptor.MODE_READ_ONLY);
+        } catch (IOException e) {
+            releaseTimePage(holder);
+            return null;
+        }
+    }
+
+    private void releaseTimePage(IBinder holder) {
+        synchronized (mTimePageLock) {
+            IBinder.DeathRecipient deathRecipient = mTimePageHolders.remove(holder);
+            if (deathRecipient != null) {
+                holder.unlinkToDeath(deathRecipient, 0);
+            }
+        }
+        // ticking stops by itself on the next tick if nobody needs it
+    }
+
+    private void writeTimePageLocked(long timeMillis) {
+        mTimePageWriter.write(timeMillis, mTimePageText, 0,
+                mTimePageFormatter.format(timeMillis, mTimePageText, 0));
+    }
+
+    /**
+     * Update the time page and notify all listeners if the second changed. Ticking stops when
+     * there are neither listeners nor holders of the time page, and is restarted by the next
+     * registration.
+     */
+    private void tick() {
+        long now = System.currentTimeMillis();
+        long second = now / MILLIS_PER_SECOND;
+
+        // the delayed task might fire a bit early - the value doesn't change in such case
+        if (second != mLastTickSecond) {
+            mLastTickSecond = second;
+
+            // the page is updated before listeners are notified, such that notified clients
+            // read the new value
+            boolean timePageHeld;
+            synchronized (mTimePageLock) {
+                timePageHeld = !mTimePageHolders.isEmpty();
+                if (timePageHeld) {
+                    writeTimePageLocked(now);
+                }
+            }
+
+            int listenersCount = mDateListeners.beginBroadcast();
+            try {
+                for (int i = 0; i < listenersCount; i++) {
+                    try {
+                        mDateListeners.getBroadcastItem(i).onTimeChanged(now);
+                    } catch (RemoteException e) {
+                        // the listener died - RemoteCallbackList will remove it
+                    }
+                }
+            } finally {
+                mDateListeners.finishBroadcast();
+            }
+
+            if (listenersCount == 0 && !timePageHeld) {
+                mTicking = false;
+                return;
+            }
+        }
+
+        scheduleNextTick();
+    }
+
+    private void scheduleNextTick() {
+        long delayToNextSecond = MILLIS_PER_SECOND - System.currentTimeMillis() % MILLIS_PER_SECOND;
+        mTickerHandler.postDelayed(mTick, delayToNextSecond);
+    }
+
+    /**
+     * The formatted value changes once per second, therefore it is formatted at most once per
+     * second (by the first call after the second boundary) and then served from the cache.
+     */
     private String getDate() {
-        // nothing special here
-        SimpleDateFormat sdf = new SimpleDateFormat("MMM dd,yyyy HH:mm:ss");
-        Date date = new Date(System.currentTimeMillis());
-        return sdf.format(date);
+        return mDateFormatter.format(System.currentTimeMillis());
     }
+
+    /**
+     * Compiled formatters are cached, therefore repeated requests for the same pattern don't
+     * parse it again
+     */
+    private String formatDate(String pattern, String locale) {
+        if (pattern == null) {
+            throw new IllegalArgumentException("pattern must not be null");
+        }
+        PatternDateFormatter formatter = mFormattersCache.get(
+                pattern, DateFormatterCache.parseLocale(locale), TimeZone.getDefault());
+        return formatter.format(System.currentTimeMillis());
+    }
+
+    /**
+     * All values are formatted from a single reading of the clock, and formatters of all zones
+     * are resolved under a single acquisition of the lock
+     */
+    private String[] getDates(String[] zoneIds) {
+        if (zoneIds == null) {
+            throw new IllegalArgumentException("zone IDs must not be null");
+        }
+        if (zoneIds.length > MAX_ZONES_PER_REQUEST) {
+            throw new IllegalArgumentException("too many zone IDs: " + zoneIds.length);
+        }
+
+        FastDateFormatter[] formatters = new FastDateFormatter[zoneIds.length];
+        synchronized (mZoneFormattersLock) {
+            for (int i = 0; i < zoneIds.length; i++) {
+                formatters[i] = getZoneFormatterLocked(zoneIds[i]);
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        String[] dates = new String[zoneIds.length];
+        for (int i = 0; i < zoneIds.length; i++) {
+            if (formatters[i] != null) {
+                dates[i] = formatters[i].format(now);
+            }
+        }
+        return dates;
+    }
+
+    private DateSnapshot getDateSnapshot(boolean includeText) {
+        long now = System.currentTimeMillis();
+        long elapsedRealtime = SystemClock.elapsedRealtime();
+        long sequence = mSnapshotSequence.incrementAndGet();
+        int offset = mSnapshotFormatter.getOffset(now);
+
+        char[] text = null;
+        int textLength = 0;
+        if (includeText) {
+            text = new char[mSnapshotFormatter.getMaxLength()];
+            textLength = mSnapshotFormatter.format(now, text, 0);
+        }
+
+        return new DateSnapshot(now, elapsedRealtime, sequence, offset, text, textLength);
+    }
+
+    @Nullable
+    private FastDateFormatter getZoneFormatterLocked(String zoneId) {
+        if (zoneId == null) {
+            return null;
+        }
+        if (mZoneFormatters.containsKey(zoneId)) {
+            return mZoneFormatters.get(zoneId);
+        }
+
+        // unknown IDs are resolved to GMT instead of failing
+        TimeZone timeZone = TimeZone.getTimeZone(zoneId);
+        FastDateFormatter formatter = null;
+        if (!timeZone.getID().equals("GMT") || zoneId.equals("GMT")) {
+            formatter = new FastDateFormatter(timeZone, Locale.getDefault());
+        }
+
+        mZoneFormatters.put(zoneId, formatter);
+        return formatter;
+    }
+
+
+    /*
+     Replicas of this service. Each replica is declared with its own process in the manifest,
+     therefore replicas are served by independent binder thread pools and crash independently.
+     */
+
+    public static class Replica1 extends DateProviderService {}
+
+    public static class Replica2 extends DateProviderService {}
 }
@@ -0,0 +1,168 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Snapshot of service's time returned by {@link IDateProvider#getDateSnapshot(boolean)}.<br><br>
+ *
+ * The time is transferred as primitives, and the formatted text is optional. The text is
+ * transferred as single-byte chars when it is ASCII (which is the case for most locales),
+ * therefore it occupies half the space of a String in the parcel and doesn't require UTF-16
+ * marshalling. Non-ASCII text falls back to a String.
+ */
+public final class DateSnapshot implements Parcelable {
+
+    private static final int TEXT_ENCODING_NONE = 0;
+    private static final int TEXT_ENCODING_ASCII = 1;
+    private static final int TEXT_ENCODING_STRING = 2;
+
+    private final long mTimeMillis;
+    private final long mElapsedRealtime;
+    private final long mSequence;
+    private final int mOffset;
+
+    // at most one of these is non-null
+    private final byte[] mAsciiText;
+    private final String mText;
+
+    /**
+     * @param timeMillis the time (milliseconds since epoch)
+     * @param elapsedRealtime the value of {@link android.os.SystemClock#elapsedRealtime()} at the
+     *                        time the snapshot was taken
+     * @param sequence the sequence number of the snapshot
+     * @param offset the offset (in milliseconds) of service's time zone from UTC at the given time
+     * @param text the formatted time; can be null
+     * @param textLength the number of chars of the formatted time
+     */
+    public DateSnapshot(long timeMillis, long elapsedRealtime, long sequence, int offset,
+                        @Nullable char[] text, int textLength) {
+        mTimeMillis = timeMillis;
+        mElapsedRealtime = elapsedRealtime;
+        mSequence = sequence;
+        mOffset = offset;
+
+        if (text == null) {
+            mAsciiText = null;
+            mText = null;
+        } else if (isAscii(text, textLength)) {
+            mAsciiText = new byte[textLength];
+            for (int i = 0; i < textLength; i++) {
+                mAsciiText[i] = (byte) text[i];
+            }
+            mText = null;
+        } else {
+            mAsciiText = null;
+            mText = new String(text, 0, textLength);
+        }
+    }
+
+    private DateSnapshot(Parcel in) {
+        mTimeMillis = in.readLong();
+        mElapsedRealtime = in.readLong();
+        mSequence = in.readLong();
+        mOffset = in.readInt();
+
+        int textEncoding = in.readInt();
+        mAsciiText = textEncoding == TEXT_ENCODING_ASCII ? in.createByteArray() : null;
+        mText = textEncoding == TEXT_ENCODING_STRING ? in.readString() : null;
+    }
+
+    /**
+     * @return the time (milliseconds since epoch)
+     */
+    public long getTimeMillis() {
+        return mTimeMillis;
+    }
+
+    /**
+     * @return the value of {@link android.os.SystemClock#elapsedRealtime()} at the time the
+     *         snapshot was taken. This clock is shared by all processes and is monotonic, therefore
+     *         it can be used in order to determine the age of the snapshot.
+     */
+    public long getElapsedRealtime() {
+        return mElapsedRealtime;
+    }
+
+    /**
+     * @return the sequence number of the snapshot. Sequence numbers of snapshots taken by the same
+     *         service process increase monotonically.
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * @return the offset (in milliseconds) of service's time zone from UTC at the time of the
+     *         snapshot
+     */
+    public int getOffset() {
+        return mOffset;
+    }
+
+    public boolean hasText() {
+        return mAsciiText != null || mText != null;
+    }
+
+    /**
+     * @return the formatted time, or null if it wasn't requested
+     */
+    @Nullable
+    public String getText() {
+        if (mAsciiText != null) {
+            char[] chars = new char[mAsciiText.length];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char) mAsciiText[i];
+            }
+            return new String(chars);
+        } else {
+            return mText;
+        }
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(@NonNull Parcel dest, int flags) {
+        dest.writeLong(mTimeMillis);
+        dest.writeLong(mElapsedRealtime);
+        dest.writeLong(mSequence);
+        dest.writeInt(mOffset);
+
+        if (mAsciiText != null) {
+            dest.writeInt(TEXT_ENCODING_ASCII);
+            dest.writeByteArray(mAsciiText);
+        } else if (mText != null) {
+            dest.writeInt(TEXT_ENCODING_STRING);
+            dest.writeString(mText);
+        } else {
+            dest.writeInt(TEXT_ENCODING_NONE);
+        }
+    }
+
+    private static boolean isAscii(char[] text, int length) {
+        for (int i = 0; i < length; i++) {
+            if (text[i] >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static final Creator<DateSnapshot> CREATOR = new Creator<DateSnapshot>() {
+        @Override
+        public DateSnapshot createFromParcel(Parcel in) {
+            return new DateSnapshot(in);
+        }
+
+        @Override
+        public DateSnapshot[] newArray(int size) {
+            return new DateSnapshot[size];
+        }
+    };
+}
@@ -0,0 +1,188 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import android.support.annotation.NonNull;
+
+import java.text.DateFormatSymbols;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formatter of the "MMM dd,yyyy HH:mm:ss" pattern which produces the same output as
+ * {@link java.text.SimpleDateFormat} (with ASCII digits) for dates after the Gregorian cutover
+ * of 1582.<br><br>
+ *
+ * Formatting into a caller-provided buffer doesn't allocate: digits are copied from lookup
+ * tables, and the "MMM dd,yyyy " prefix is computed once per local day and cached. The cached
+ * prefix is immutable and published through a volatile field, therefore a single instance can
+ * be shared between threads without locking.
+ */
+public final class FastDateFormatter {
+
+    private static final long MILLIS_PER_SECOND = 1000;
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * MILLIS_PER_SECOND;
+
+    /**
+     * The length of "HH:mm:ss"
+     */
+    private static final int TIME_LENGTH = 8;
+
+    private static final char[] DIGIT_TENS = new char[100];
+    private static final char[] DIGIT_ONES = new char[100];
+
+    static {
+        for (int i = 0; i < 100; i++) {
+            DIGIT_TENS[i] = (char) ('0' + i / 10);
+            DIGIT_ONES[i] = (char) ('0' + i % 10);
+        }
+    }
+
+    private final TimeZone mTimeZone;
+    private final char[][] mMonthNames;
+    private final int mMaxLength;
+
+    private volatile DayPrefix mDayPrefix = new DayPrefix(Long.MIN_VALUE, new char[0]);
+
+    /**
+     * Create formatter which uses the default time zone and locale
+     */
+    public FastDateFormatter() {
+        this(TimeZone.getDefault(), Locale.getDefault());
+    }
+
+    /**
+     * @param timeZone the time zone of the formatted values
+     * @param locale the locale of month names
+     */
+    public FastDateFormatter(@NonNull TimeZone timeZone, @NonNull Locale locale) {
+        mTimeZone = (TimeZone) timeZone.clone();
+
+        String[] shortMonths = new DateFormatSymbols(locale).getShortMonths();
+        mMonthNames = new char[12][];
+        int maxMonthNameLength = 0;
+        for (int i = 0; i < 12; i++) {
+            mMonthNames[i] = shortMonths[i].toCharArray();
+            maxMonthNameLength = Math.max(maxMonthNameLength, mMonthNames[i].length);
+        }
+
+        // "MMM" + " dd," + "yyyy" + " " + "HH:mm:ss"
+        mMaxLength = maxMonthNameLength + 4 + 4 + 1 + TIME_LENGTH;
+    }
+
+    /**
+     * @return the maximal number of chars written by {@link #format(long, char[], int)}
+     */
+    public int getMaxLength() {
+        return mMaxLength;
+    }
+
+    /**
+     * @return the offset (in milliseconds) of formatter's time zone from UTC at the given time
+     */
+    public int getOffset(long millis) {
+        return mTimeZone.getOffset(millis);
+    }
+
+    /**
+     * Format the given time into the buffer. This method doesn't allocate (except when the
+     * local day changes).
+     * @param millis the time to format (milliseconds since epoch); years [1, 9999] are supported
+     * @param buffer the destination; must have at least {@link #getMaxLength()} chars after
+     *               the offset
+     * @param offset the index in the buffer at which the first char is written
+     * @return the number of chars written
+     */
+    public int format(long millis, @NonNull char[] buffer, int offset) {
+        long localMillis = millis + mTimeZone.getOffset(millis);
+        long localDay = floorDiv(localMillis, MILLIS_PER_DAY);
+
+        DayPrefix dayPrefix = mDayPrefix;
+        if (dayPrefix.mLocalDay != localDay) {
+            dayPrefix = new DayPrefix(localDay, formatDayPrefix(localDay));
+            mDayPrefix = dayPrefix;
+        }
+
+        char[] prefix = dayPrefix.mChars;
+        System.arraycopy(prefix, 0, buffer, offset, prefix.length);
+        int index = offset + prefix.length;
+
+        int secondOfDay = (int) ((localMillis - localDay * MILLIS_PER_DAY) / MILLIS_PER_SECOND);
+        index = writeTwoDigits(secondOfDay / 3600, buffer, index);
+        buffer[index++] = ':';
+        index = writeTwoDigits(secondOfDay / 60 % 60, buffer, index);
+        buffer[index++] = ':';
+        index = writeTwoDigits(secondOfDay % 60, buffer, index);
+
+        return index - offset;
+    }
+
+    /**
+     * Format the given time into a new String. The String is the only allocation.
+     * @param millis the time to format (milliseconds since epoch)
+     */
+    @NonNull
+    public String format(long millis) {
+        char[] buffer = new char[mMaxLength];
+        int length = format(millis, buffer, 0);
+        return new String(buffer, 0, length);
+    }
+
+    private char[] formatDayPrefix(long localDay) {
+        // civil date from the number of days since epoch (proleptic Gregorian calendar)
+        long z = localDay + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153; // March-based
+        int dayOfMonth = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        if (year < 1 || year > 9999) {
+            throw new IllegalArgumentException("unsupported year: " + year);
+        }
+
+        char[] monthName = mMonthNames[month - 1];
+        char[] prefix = new char[monthName.length + 4 + 4 + 1];
+
+        System.arraycopy(monthName, 0, prefix, 0, monthName.length);
+        int index = monthName.length;
+        prefix[index++] = ' ';
+        index = writeTwoDigits(dayOfMonth, prefix, index);
+        prefix[index++] = ',';
+        index = writeTwoDigits((int) (year / 100), prefix, index);
+        index = writeTwoDigits((int) (year % 100), prefix, index);
+        prefix[index] = ' ';
+
+        return prefix;
+    }
+
+    private static int writeTwoDigits(int value, char[] buffer, int index) {
+        buffer[index] = DIGIT_TENS[value];
+        buffer[index + 1] = DIGIT_ONES[value];
+        return index + 2;
+    }
+
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        if ((dividend % divisor != 0) && ((dividend ^ divisor) < 0)) {
+            quotient--;
+        }
+        return quotient;
+    }
+
+
+    /**
+     * Immutable formatted "MMM dd,yyyy " prefix of a local day
+     */
+    private static final class DayPrefix {
+
+        private final long mLocalDay;
+        private final char[] mChars;
+
+        private DayPrefix(long localDay, char[] chars) {
+            mLocalDay = localDay;
+            mChars = chars;
+        }
+    }
+}
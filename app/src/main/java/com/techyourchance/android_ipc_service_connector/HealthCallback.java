@@ -0,0 +1,15 @@
+package com.techyourchance.android_ipc_service_connector;
+
+/**
+ * Callback which is notified when {@link HealthProber} marks the connection as degraded or
+ * healthy (see {@link HealthProber#setCallback(java.util.concurrent.Executor, HealthCallback)}).
+ */
+public interface HealthCallback {
+
+    /**
+     * @param degraded the current health of the connection (notifications of quick successive
+     *                 changes might be coalesced, therefore this value should be used instead of
+     *                 toggling a local flag)
+     */
+    void onHealthChanged(boolean degraded);
+}
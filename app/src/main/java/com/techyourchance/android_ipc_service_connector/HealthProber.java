@@ -0,0 +1,362 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import android.os.IInterface;
+import android.os.RemoteException;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Periodically probes the service connected by {@link IpcServiceConnector} with a cheap call and
+ * measures its round-trip time. It can be attached using
+ * {@link IpcServiceConnector#setHealthProber(HealthProber)}.<br><br>
+ *
+ * A probe is "bad" if it fails, doesn't complete within the probe timeout, or completes slower
+ * than the latency threshold. When the number of consecutive bad probes reaches the threshold,
+ * the connection is marked as degraded (see {@link IpcServiceConnector#isDegraded()}); a single
+ * good probe marks it healthy again. This allows clients to react to an overloaded or hung
+ * service before user-visible calls fail or {@code onServiceDisconnected()} is called. Clients
+ * which need to react to changes of health can register a {@link HealthCallback}.<br><br>
+ *
+ * Probes are executed on {@link CallExecutor} and timed by {@link ConnectorScheduler}. At most one
+ * probe is in flight: while a hung probe is outstanding, each subsequent interval counts as
+ * another bad probe without issuing a new transaction, therefore a hung service doesn't consume
+ * additional threads. Probes are skipped while all threads of {@link CallExecutor} are busy.
+ * @param <T> the interface of IPC service
+ */
+public class HealthProber<T extends IInterface> {
+
+    private final IpcCall<T, ?> mProbeCall;
+    private final long mInterval;
+    private final long mProbeTimeout;
+    private final long mLatencyThreshold;
+    private final int mBadProbesThreshold;
+
+    private final AtomicLong mProbesCount = new AtomicLong(0);
+    private final AtomicLong mBadProbesCount = new AtomicLong(0);
+    private final LatencyHistogram mRoundTripTime = new LatencyHistogram();
+
+    private volatile boolean mDegraded = false;
+    private volatile long mLastRoundTripTime = -1;
+
+    // guarded by this
+    private IpcServiceConnector<T> mConnector;
+    private IpcTracer mTracer = IpcTracer.NONE;
+    private boolean mActive = false;
+    private int mGeneration = 0;
+    private ScheduledFuture<?> mPendingTask;
+    private Probe mProbeInFlight;
+    private T mProbedService;
+    private int mConsecutiveBadProbes = 0;
+    private HealthCallback mCallback;
+    private Executor mCallbackExecutor;
+    private boolean mHealthChangePending = false;
+
+    /**
+     * @param probeCall the call used as a probe; should be as cheap as possible
+     * @param interval the period of time (in milliseconds) between probes
+     * @param probeTimeout the period of time (in milliseconds) after which a probe which didn't
+     *                     complete is considered bad
+     * @param latencyThreshold round-trip time (in milliseconds) above which a completed probe is
+     *                         considered bad
+     * @param badProbesThreshold the number of consecutive bad probes which marks the connection
+     *                           as degraded
+     */
+    public HealthProber(@NonNull IpcCall<T, ?> probeCall, long interval, long probeTimeout,
+                        long latencyThreshold, int badProbesThreshold) {
+        if (interval <= 0 || probeTimeout <= 0 || latencyThreshold <= 0) {
+            throw new IllegalArgumentException("intervals and thresholds must be positive");
+        }
+        if (badProbesThreshold <= 0) {
+            throw new IllegalArgumentException("bad probes threshold must be positive");
+        }
+
+        mProbeCall = probeCall;
+        mInterval = interval;
+        mProbeTimeout = TimeUnit.MILLISECONDS.toNanos(probeTimeout);
+        mLatencyThreshold = TimeUnit.MILLISECONDS.toNanos(latencyThreshold);
+        mBadProbesThreshold = badProbesThreshold;
+    }
+
+    /**
+     * @return prober which probes every 5s, and marks the connection degraded after 3 consecutive
+     *         probes which failed, took longer than 200ms, or didn't complete within 1s
+     */
+    public static <T extends IInterface> HealthProber<T> createDefault(
+            @NonNull IpcCall<T, ?> probeCall) {
+        return new HealthProber<>(probeCall, 5000, 1000, 200, 3);
+    }
+
+    /**
+     * Set the callback which will be notified when the connection is marked as degraded or
+     * healthy. The callback is handed to the executor after prober's internal lock is released,
+     * therefore a direct executor can be used.
+     * @param executor the executor which will be used in order to invoke the callback
+     * @param callback the callback, or null in order to remove the current one
+     */
+    public synchronized void setCallback(@Nullable Executor executor,
+                                         @Nullable HealthCallback callback) {
+        if (callback != null && executor == null) {
+            throw new IllegalArgumentException("executor must be provided along with callback");
+        }
+        mCallbackExecutor = executor;
+        mCallback = callback;
+    }
+
+    /**
+     * @return true if the number of consecutive bad probes reached the threshold
+     */
+    public boolean isDegraded() {
+        return mDegraded;
+    }
+
+    /**
+     * @return the round-trip time (in nanoseconds) of the last completed probe, or -1 if no probe
+     *         completed yet
+     */
+    public long getLastRoundTripTime() {
+        return mLastRoundTripTime;
+    }
+
+    /**
+     * @return distribution of round-trip times (in nanoseconds) of completed probes
+     */
+    @NonNull
+    public LatencyHistogram.Snapshot getRoundTripTime() {
+        return mRoundTripTime.getSnapshot();
+    }
+
+    public long getProbesCount() {
+        return mProbesCount.get();
+    }
+
+    public long getBadProbesCount() {
+        return mBadProbesCount.get();
+    }
+
+    /**
+     * Called by {@link IpcServiceConnector#setHealthProber(HealthProber)}
+     */
+    synchronized void attach(@NonNull IpcServiceConnector<T> connector, @NonNull IpcTracer tracer) {
+        if (mConnector != null && mConnector != connector) {
+            throw new IllegalStateException("prober is already attached to another connector");
+        }
+        mConnector = connector;
+        mTracer = tracer;
+    }
+
+    /**
+     * Start probing. Should be called when the connector binds the service.
+     */
+    synchronized void start() {
+        if (mActive || mConnector == null) {
+            return;
+        }
+        mActive = true;
+        scheduleNextProbe();
+    }
+
+    /**
+     * Stop probing. Should be called when the connector unbinds the service or detaches this
+     * prober. A probe which is in flight completes, but it isn't accounted.
+     */
+    void stop() {
+        synchronized (this) {
+            mActive = false;
+            mGeneration++;
+            if (mPendingTask != null) {
+                mPendingTask.cancel(false);
+                mPendingTask = null;
+            }
+            mProbeInFlight = null;
+            mProbedService = null;
+            resetLocked();
+        }
+        dispatchHealthChange();
+    }
+
+    private void scheduleNextProbe() {
+        final int generation = mGeneration;
+        mPendingTask = ConnectorScheduler.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                startProbe(generation);
+                dispatchHealthChange();
+            }
+        }, mInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void startProbe(int generation) {
+        if (generation != mGeneration || !mActive) {
+            return;
+        }
+
+        T service = mConnector.getService();
+        if (service == null) {
+            // the connection is down - this is reflected by connector's state
+            mProbedService = null;
+            resetLocked();
+            scheduleNextProbe();
+            return;
+        }
+
+        if (service != mProbedService) {
+            // new connection - the health of the previous one is irrelevant
+            mProbedService = service;
+            resetLocked();
+        }
+
+        if (mProbeInFlight != null) {
+            // the previous probe is still blocked in the service
+            recordLocked(false, -1);
+            scheduleNextProbe();
+            return;
+        }
+
+        final Probe probe = new Probe(generation, service);
+        try {
+            CallExecutor.get().execute(probe);
+        } catch (RejectedExecutionException e) {
+            // the pool is saturated by calls - skip this probe rather than add to the load
+            scheduleNextProbe();
+            return;
+        }
+        mProbeInFlight = probe;
+        mPendingTask = ConnectorScheduler.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                onProbeTimedOut(probe);
+                dispatchHealthChange();
+            }
+        }, mProbeTimeout, TimeUnit.NANOSECONDS);
+    }
+
+    private synchronized void onProbeCompleted(Probe probe, boolean succeeded, long roundTripTime) {
+        if (probe.mGeneration != mGeneration) {
+            return;
+        }
+        if (mProbeInFlight == probe) {
+            mProbeInFlight = null;
+        }
+        if (probe.mAccounted) {
+            return; // already accounted as timed out, and the next probe is scheduled
+        }
+        probe.mAccounted = true;
+
+        if (mPendingTask != null) {
+            mPendingTask.cancel(false);
+        }
+        recordLocked(succeeded, roundTripTime);
+        scheduleNextProbe();
+    }
+
+    private synchronized void onProbeTimedOut(Probe probe) {
+        if (probe.mGeneration != mGeneration || probe.mAccounted) {
+            return;
+        }
+        probe.mAccounted = true;
+
+        recordLocked(false, -1);
+        scheduleNextProbe();
+    }
+
+    /**
+     * @param roundTripTime round-trip time (in nanoseconds) of a completed probe, or -1 if the
+     *                      probe didn't complete in time
+     */
+    private void recordLocked(boolean succeeded, long roundTripTime) {
+        mProbesCount.incrementAndGet();
+
+        if (roundTripTime >= 0) {
+            mRoundTripTime.record(roundTripTime);
+            mLastRoundTripTime = roundTripTime;
+        }
+
+        boolean bad = !succeeded || roundTripTime > mLatencyThreshold;
+        if (bad) {
+            mBadProbesCount.incrementAndGet();
+            mConsecutiveBadProbes++;
+        } else {
+            mConsecutiveBadProbes = 0;
+        }
+
+        setDegradedLocked(mConsecutiveBadProbes >= mBadProbesThreshold);
+    }
+
+    private void resetLocked() {
+        mConsecutiveBadProbes = 0;
+        setDegradedLocked(false);
+    }
+
+    private void setDegradedLocked(boolean degraded) {
+        if (degraded != mDegraded) {
+            mDegraded = degraded;
+            mTracer.trace(IpcTracer.EVENT_HEALTH_CHANGED, degraded ? 1 : 0, mConsecutiveBadProbes);
+            mHealthChangePending = true;
+        }
+    }
+
+    /**
+     * Hand the pending notification (if any) to the executor of the callback. Must be called
+     * after each block which holds this object's monitor and might change the health, such that
+     * the callback never runs under the monitor.
+     */
+    private void dispatchHealthChange() {
+        final HealthCallback callback;
+        Executor executor;
+        synchronized (this) {
+            if (!mHealthChangePending) {
+                return;
+            }
+            mHealthChangePending = false;
+            callback = mCallback;
+            executor = mCallbackExecutor;
+        }
+
+        if (callback == null) {
+            return;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onHealthChanged(mDegraded);
+            }
+        });
+    }
+
+
+    private class Probe implements Runnable {
+
+        private final int mGeneration;
+        private final T mService;
+
+        // guarded by HealthProber.this
+        private boolean mAccounted = false;
+
+        private Probe(int generation, @NonNull T service) {
+            mGeneration = generation;
+            mService = service;
+        }
+
+        @Override
+        public void run() {
+            boolean succeeded = false;
+            long startTime = System.nanoTime();
+            try {
+                mProbeCall.call(mService);
+                succeeded = true;
+            } catch (RemoteException e) {
+                // the probe failed - accounted below
+            } finally {
+                onProbeCompleted(this, succeeded, System.nanoTime() - startTime);
+                dispatchHealthChange();
+            }
+        }
+    }
+}
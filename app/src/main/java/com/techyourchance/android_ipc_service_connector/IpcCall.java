@@ -0,0 +1,16 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import android.os.IInterface;
+import android.os.RemoteException;
+import android.support.annotation.NonNull;
+
+/**
+ * A single invocation of IPC service's interface executed by
+ * {@link IpcServiceConnector#call(IpcCall, long)}
+ * @param <T> the interface of IPC service
+ * @param <R> the type of call's result
+ */
+public interface IpcCall<T extends IInterface, R> {
+
+    R call(@NonNull T service) throws RemoteException;
+}
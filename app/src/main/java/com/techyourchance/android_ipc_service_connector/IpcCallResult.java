@@ -0,0 +1,134 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import android.os.RemoteException;
+import android.support.annotation.Nullable;
+
+/**
+ * Outcome of a call executed by {@link IpcServiceConnector#call(IpcCall, long)}
+ * @param <R> the type of call's result
+ */
+public final class IpcCallResult<R> {
+
+    /**
+     * The call completed and returned a value
+     */
+    public static final int STATUS_SUCCESS = 0;
+
+    /**
+     * The call wasn't executed because the connector wasn't in
+     * {@link IpcServiceConnector#STATE_BOUND_CONNECTED}
+     */
+    public static final int STATUS_NOT_CONNECTED = 1;
+
+    /**
+     * The call threw {@link RemoteException}
+     */
+    public static final int STATUS_REMOTE_ERROR = 2;
+
+    /**
+     * The call didn't complete before its deadline. The binder transaction itself can't be
+     * aborted - it will complete (or fail) in background, and its result will be discarded.
+     */
+    public static final int STATUS_TIMED_OUT = 3;
+
+    /**
+     * The calling thread was interrupted while waiting for the call to complete
+     */
+    public static final int STATUS_CANCELLED = 4;
+
+    /**
+     * The call wasn't executed because too many earlier calls to the service timed out and are
+     * still blocked in their binder transactions (see
+     * {@link IpcServiceConnector#setMaxStrandedCalls(int)})
+     */
+    public static final int STATUS_REJECTED_STRANDED_CALLS = 5;
+
+    /**
+     * The call wasn't executed because all threads of the pool shared by all connectors were
+     * busy (see {@link CallExecutor})
+     */
+    public static final int STATUS_REJECTED_EXECUTOR_SATURATED = 6;
+
+    /**
+     * The call wasn't executed because connector's {@link CircuitBreaker} is open
+     */
+    public static final int STATUS_REJECTED_CIRCUIT_OPEN = 7;
+
+    /**
+     * The call wasn't executed because connector's {@link Bulkhead} was saturated
+     */
+    public static final int STATUS_REJECTED_BULKHEAD = 8;
+
+    private final int mStatus;
+    private final R mValue;
+    private final RemoteException mError;
+    private final long mLatency;
+
+    IpcCallResult(int status, @Nullable R value, @Nullable RemoteException error, long latency) {
+        mStatus = status;
+        mValue = value;
+        mError = error;
+        mLatency = latency;
+    }
+
+    public int getStatus() {
+        return mStatus;
+    }
+
+    public boolean isSuccessful() {
+        return mStatus == STATUS_SUCCESS;
+    }
+
+    /**
+     * @return the value returned by the call if the status is {@link #STATUS_SUCCESS}; null
+     *         otherwise
+     */
+    @Nullable
+    public R getValue() {
+        return mValue;
+    }
+
+    /**
+     * @return the exception thrown by the call if the status is {@link #STATUS_REMOTE_ERROR};
+     *         null otherwise
+     */
+    @Nullable
+    public RemoteException getError() {
+        return mError;
+    }
+
+    /**
+     * @return the time (in nanoseconds) the caller waited for this result
+     */
+    public long getLatency() {
+        return mLatency;
+    }
+
+    /**
+     * @return human readable representation of call's status for logging purposes
+     */
+    public static String getStatusName(int status) {
+        switch (status) {
+            case STATUS_SUCCESS:
+                return "STATUS_SUCCESS";
+            case STATUS_NOT_CONNECTED:
+                return "STATUS_NOT_CONNECTED";
+            case STATUS_REMOTE_ERROR:
+                return "STATUS_REMOTE_ERROR";
+            case STATUS_TIMED_OUT:
+                return "STATUS_TIMED_OUT";
+            case STATUS_CANCELLED:
+                return "STATUS_CANCELLED";
+            case STATUS_REJECTED_STRANDED_CALLS:
+                return "STATUS_REJECTED_STRANDED_CALLS";
+            case STATUS_REJECTED_EXECUTOR_SATURATED:
+                return "STATUS_REJECTED_EXECUTOR_SATURATED";
+            case STATUS_REJECTED_CIRCUIT_OPEN:
+                return "STATUS_REJECTED_CIRCUIT_OPEN";
+            case STATUS_REJECTED_BULKHEAD:
+                return "STATUS_REJECTED_BULKHEAD";
+            default:
+                throw new IllegalArgumentException("invalid status: " + status);
+        }
+    }
+}
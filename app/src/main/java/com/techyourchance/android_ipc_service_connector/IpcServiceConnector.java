@@ -5,17 +5,39 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.IBinder;
+import android.os.IInterface;
+import android.os.RemoteException;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.WorkerThread;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * Objects of this class perform binding and connection to IPC services and allow for
  * an easier handling of connection states and the associated failures<br>
  * Please note that "blocked thread" and "waiting thread" are synonyms.
+ * @param <T> the interface of IPC service
  * @author Vasiliy@techyourchance.com
  */
-public class IpcServiceConnector {
+public class IpcServiceConnector<T extends IInterface> {
 
     /**
      * Initialization non-functional state
@@ -36,7 +58,8 @@ public class IpcServiceConnector {
 
     /**
      * IPC service is bound and had already been connected, but
-     * {@link ServiceConnection#onServiceDisconnected(ComponentName)} was called
+     * {@link ServiceConnection#onServiceDisconnected(ComponentName)} was called, or the death of
+     * service's binder was detected
      */
     public static final int STATE_BOUND_DISCONNECTED = 3;
 
@@ -52,35 +75,239 @@ public class IpcServiceConnector {
      */
     public static final int STATE_BINDING_FAILED = 5;
 
+    private static final int STATES_COUNT = 6;
+
+    private static final int TRANSITION_LOG_CAPACITY = 64;
+
+    private static final int DEFAULT_MAX_STRANDED_CALLS = 4;
+
+    /**
+     * Result of a wait which completed because the timeout elapsed before the target state
+     * was reached
+     */
+    public static final int WAIT_RESULT_TIMED_OUT = -1;
+
+    /**
+     * Result of a blocking wait which completed because the waiting thread was interrupted
+     */
+    public static final int WAIT_RESULT_INTERRUPTED = -2;
+
+    private static final int WAIT_RESULT_CANCELLED = -3;
+    private static final int WAIT_RESULT_PENDING = Integer.MIN_VALUE;
 
+
+    /**
+     * Serializes bind/unbind operations and state changes reported by the system. State reads
+     * and waits do not use this lock. This lock must not be held while calling into
+     * {@link ReconnectScheduler} (except for its methods which don't lock).
+     */
     private final Object LOCK = new Object();
 
-    private int mConnectionState = STATE_NONE;
+    /**
+     * Callbacks of async waits which were completed by the current thread while holding LOCK.
+     * User code must not run under LOCK (e.g. a callback which binds this connector would call
+     * into {@link ReconnectScheduler}), therefore these callbacks are handed to their executors
+     * by {@link #dispatchDeferredCallbacks()} after LOCK is released.
+     */
+    private final ThreadLocal<ArrayList<Runnable>> mDeferredCallbacks =
+            new ThreadLocal<ArrayList<Runnable>>() {
+                @Override
+                protected ArrayList<Runnable> initialValue() {
+                    return new ArrayList<>();
+                }
+            };
+
+    /**
+     * Connector's state and the interface of the connected service are published together in
+     * a single reference, such that readers always observe a consistent pair.
+     */
+    private final AtomicReference<ConnectionSnapshot<T>> mConnectionSnapshot;
+
+    /**
+     * Preallocated snapshots of the states which don't have an associated service interface
+     */
+    private final ConnectionSnapshot<T>[] mServicelessSnapshots;
+
+    private final BinderConverter<T> mBinderConverter;
+
+    /**
+     * Threads waiting for a particular state are queued at the index of that state, such that
+     * a transition wakes up only the threads interested in the state that was reached.
+     */
+    private final ConcurrentLinkedQueue<StateWaiter>[] mWaiters;
+
+    private volatile ServiceConnectionDecorator mServiceConnectionDecorator;
+
+    // parameters of the last explicit binding attempt - used for reconnection; guarded by LOCK
+    private Intent mBindIntent;
+    private ServiceConnection mBindServiceConnection;
+    private int mBindFlags;
+
+    private volatile ReconnectScheduler mReconnectScheduler;
+
+    private volatile long mLastDeathDetectionLead = -1;
+
+    private volatile CircuitBreaker mCircuitBreaker;
 
-    private ServiceConnectionDecorator mServiceConnectionDecorator;
+    private volatile Bulkhead mBulkhead;
+
+    /**
+     * The number of calls whose callers stopped waiting (timed out or were interrupted) while
+     * their binder transactions are still in progress. Each such call occupies a thread of
+     * {@link CallExecutor} and a binder thread of the service.
+     */
+    private final AtomicInteger mStrandedCalls = new AtomicInteger(0);
+
+    private volatile int mMaxStrandedCalls = DEFAULT_MAX_STRANDED_CALLS;
+
+    private volatile HealthProber<T> mHealthProber;
+
+    private final ConnectorMetrics mMetrics = new ConnectorMetrics();
+
+    /**
+     * Always-on record of the recent state transitions, independent of the tracer
+     */
+    private final TraceBuffer mTransitionLog;
+
+    // timestamps of the last (re)binding and disconnection, or 0; guarded by LOCK
+    private long mBindTime = 0;
+    private long mDisconnectTime = 0;
 
     private Context mContext;
     private String mName;
 
+    private final IpcTracer mTracer;
+
+    /**
+     * @param context will be used in order to bind/unbind services
+     * @param name the name of the newly created instance for logging purposes
+     * @param binderConverter will be used once per connection in order to obtain the interface
+     *                        of the connected service
+     */
+    public IpcServiceConnector(@NonNull Context context, @NonNull String name,
+                               @NonNull BinderConverter<T> binderConverter) {
+        this(context, name, binderConverter, IpcTracer.NONE);
+    }
+
     /**
      * @param context will be used in order to bind/unbind services
      * @param name the name of the newly created instance for logging purposes
+     * @param binderConverter will be used once per connection in order to obtain the interface
+     *                        of the connected service
+     * @param tracer will be notified about state changes, waits, etc.
      */
-    public IpcServiceConnector(@NonNull Context context, @NonNull String name) {
+    public IpcServiceConnector(@NonNull Context context, @NonNull String name,
+                               @NonNull BinderConverter<T> binderConverter,
+                               @NonNull IpcTracer tracer) {
         mContext = context;
         mName = name;
+        mBinderConverter = binderConverter;
+        mTracer = tracer;
+        mTransitionLog = new TraceBuffer(name, TRANSITION_LOG_CAPACITY, null);
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ConnectionSnapshot<T>[] servicelessSnapshots = new ConnectionSnapshot[STATES_COUNT];
+        mServicelessSnapshots = servicelessSnapshots;
+        for (int i = 0; i < STATES_COUNT; i++) {
+            mServicelessSnapshots[i] = new ConnectionSnapshot<>(i, null);
+        }
+        mConnectionSnapshot = new AtomicReference<>(mServicelessSnapshots[STATE_NONE]);
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ConcurrentLinkedQueue<StateWaiter>[] waiters = new ConcurrentLinkedQueue[STATES_COUNT];
+        mWaiters = waiters;
+        for (int i = 0; i < STATES_COUNT; i++) {
+            mWaiters[i] = new ConcurrentLinkedQueue<>();
+        }
     }
 
     private void setStateAndReleaseBlockedThreads(int newConnectionState) {
-        synchronized (LOCK) {
-            Log.d(mName, "setStateAndReleaseBlockedThreads()" +
-                    "; current state: " + getStateName(mConnectionState) +
-                    "; newState: " + getStateName(newConnectionState));
+        setStateAndReleaseBlockedThreads(mServicelessSnapshots[newConnectionState], true);
+    }
+
+    private void setStateAndReleaseBlockedThreads(ConnectionSnapshot<T> newSnapshot) {
+        setStateAndReleaseBlockedThreads(newSnapshot, true);
+    }
+
+    /**
+     * @param isFinal whether a terminal state is final (i.e. no binding attempt will follow
+     *                unless the client makes one); waiters for unreachable states are released
+     *                only upon final terminal states
+     */
+    private void setStateAndReleaseBlockedThreads(ConnectionSnapshot<T> newSnapshot,
+                                                  boolean isFinal) {
+        int newConnectionState = newSnapshot.getState();
+        int oldConnectionState = mConnectionSnapshot.getAndSet(newSnapshot).getState();
+
+        if (oldConnectionState != newConnectionState) {
+            mTransitionLog.trace(IpcTracer.EVENT_STATE_CHANGED, oldConnectionState, newConnectionState);
+            mTracer.trace(IpcTracer.EVENT_STATE_CHANGED, oldConnectionState, newConnectionState);
+
+            recordTransitionMetrics(newConnectionState);
+
+            releaseWaiters(newConnectionState);
 
-            if (mConnectionState != newConnectionState) {
-                mConnectionState = newConnectionState;
-                Log.d(mName, "notifying all waiting (blocked) threads about state change");
-                LOCK.notifyAll();
+            if (isFinal && isTerminalState(newConnectionState)) {
+                releaseWaitersForUnreachableStates(newConnectionState);
+            }
+        }
+    }
+
+    /**
+     * All transitions take place while holding LOCK, therefore the timestamps used here don't
+     * require additional synchronization.
+     */
+    private void recordTransitionMetrics(int newConnectionState) {
+        switch (newConnectionState) {
+            case STATE_BOUND_CONNECTED:
+                long now = System.nanoTime();
+                if (mBindTime != 0) {
+                    mMetrics.recordTimeToConnect(now - mBindTime);
+                    mBindTime = 0;
+                }
+                if (mDisconnectTime != 0) {
+                    mMetrics.recordTimeToRecover(now - mDisconnectTime);
+                    mDisconnectTime = 0;
+                }
+                break;
+            case STATE_BOUND_DISCONNECTED:
+                mDisconnectTime = System.nanoTime();
+                mMetrics.incrementDisconnects();
+                break;
+            case STATE_UNBOUND:
+            case STATE_BINDING_FAILED:
+                mBindTime = 0;
+                mDisconnectTime = 0;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Release all threads waiting for the given state. Must be called after the state was
+     * published - waiters enqueue themselves before re-checking the state, therefore either
+     * the waiter observes the new state, or this method observes the waiter.
+     */
+    private void releaseWaiters(int reachedState) {
+        ConcurrentLinkedQueue<StateWaiter> waiters = mWaiters[reachedState];
+        StateWaiter waiter;
+        while ((waiter = waiters.poll()) != null) {
+            waiter.finish(reachedState);
+        }
+    }
+
+    /**
+     * Release all threads waiting for states other than the given terminal state. Such waits can't
+     * complete until a new binding attempt is made, therefore they complete with the terminal state
+     * as the result (which tells the waiters why their target states became unreachable).
+     */
+    private void releaseWaitersForUnreachableStates(int terminalState) {
+        for (int state = 0; state < STATES_COUNT; state++) {
+            ConcurrentLinkedQueue<StateWaiter> waiters = mWaiters[state];
+            StateWaiter waiter;
+            while ((waiter = waiters.poll()) != null) {
+                waiter.finish(terminalState);
             }
         }
     }
@@ -97,8 +324,217 @@ public class IpcServiceConnector {
      * @return connector's state
      */
     public int getState() {
-        synchronized (LOCK) {
-            return mConnectionState;
+        return mConnectionSnapshot.get().getState();
+    }
+
+    /**
+     * Get connector's state along with the interface of the connected IPC service. The returned
+     * snapshot is consistent - if its state is {@link #STATE_BOUND_CONNECTED}, then the service
+     * it holds is the one that was obtained upon this connection.<br><br>
+     *
+     * This method is lock-free and can be called on hot paths.
+     *
+     * @return snapshot of connector's state
+     */
+    @NonNull
+    public ConnectionSnapshot<T> getConnectionSnapshot() {
+        return mConnectionSnapshot.get();
+    }
+
+    /**
+     * @return the interface of the connected IPC service, or null if the connector is not in
+     *         {@link #STATE_BOUND_CONNECTED}
+     */
+    @Nullable
+    public T getService() {
+        return mConnectionSnapshot.get().getService();
+    }
+
+    /**
+     * Execute the given call on the interface of the connected IPC service with a deadline. The
+     * call is executed on a shared thread pool while the calling thread waits for at most the
+     * specified timeout, therefore a hung service can't block the calling thread for longer than
+     * that. Interrupting the calling thread cancels the wait.<br><br>
+     *
+     * If the connector is not in {@link #STATE_BOUND_CONNECTED}, this method returns immediately
+     * with {@link IpcCallResult#STATUS_NOT_CONNECTED} (it doesn't wait for connection).<br><br>
+     *
+     * If a {@link CircuitBreaker} is attached to this connector and it is open, this method
+     * returns immediately with {@link IpcCallResult#STATUS_REJECTED_CIRCUIT_OPEN}. Calls which
+     * fail due to disconnection, remote errors or timeouts count as failures. RuntimeExceptions
+     * thrown by the call (including the ones passed back by binder from the service) are
+     * rethrown by this method and are not counted.<br><br>
+     *
+     * If a {@link Bulkhead} is attached to this connector, the call might wait in bulkhead's
+     * queue (the wait counts against the timeout), or be rejected with
+     * {@link IpcCallResult#STATUS_REJECTED_BULKHEAD}.<br><br>
+     *
+     * A call whose caller stops waiting remains "stranded" in its binder transaction until the
+     * transaction completes. While the number of stranded calls is at the limit set with
+     * {@link #setMaxStrandedCalls(int)}, this method returns immediately with
+     * {@link IpcCallResult#STATUS_REJECTED_STRANDED_CALLS}. If all threads of the shared pool
+     * are busy, this method returns immediately with
+     * {@link IpcCallResult#STATUS_REJECTED_EXECUTOR_SATURATED}.<br><br>
+     *
+     * This method MUST NOT be called from UI thread.
+     * @param call the call to execute
+     * @param timeout the maximal time (in milliseconds) to wait for call's completion
+     * @return the outcome of the call
+     */
+    @WorkerThread
+    @NonNull
+    public <R> IpcCallResult<R> call(@NonNull final IpcCall<T, R> call, long timeout) {
+        CircuitBreaker circuitBreaker = mCircuitBreaker;
+        long permission = CircuitBreaker.NO_PERMISSION;
+        if (circuitBreaker != null) {
+            permission = circuitBreaker.tryAcquirePermission();
+            if (permission == CircuitBreaker.NO_PERMISSION) {
+                return new IpcCallResult<R>(IpcCallResult.STATUS_REJECTED_CIRCUIT_OPEN,
+                        null, null, 0);
+            }
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        IpcCallResult<R> result = null;
+        try {
+            Bulkhead bulkhead = mBulkhead;
+            if (bulkhead == null) {
+                result = executeCall(call, deadline, null);
+            } else {
+                result = executeCallThroughBulkhead(call, deadline, bulkhead);
+            }
+        } finally {
+            // the outcome must be reported even if the call throws, otherwise a trial call would
+            // leave the breaker half-open forever
+            if (circuitBreaker != null) {
+                reportOutcome(circuitBreaker, permission, result);
+            }
+        }
+
+        return result;
+    }
+
+    private static void reportOutcome(@NonNull CircuitBreaker circuitBreaker, long permission,
+                                      @Nullable IpcCallResult<?> result) {
+        if (result == null) {
+            /*
+             The call threw RuntimeException - either the call itself is faulty, or the service
+             rejected its arguments (binder passes such exceptions back to the caller). Either way,
+             this doesn't tell anything about the health of the service.
+             */
+            circuitBreaker.onCallAbandoned(permission);
+            return;
+        }
+
+        switch (result.getStatus()) {
+            case IpcCallResult.STATUS_CANCELLED:
+            case IpcCallResult.STATUS_REJECTED_BULKHEAD:
+            case IpcCallResult.STATUS_REJECTED_STRANDED_CALLS:
+            case IpcCallResult.STATUS_REJECTED_EXECUTOR_SATURATED:
+                // the call didn't reach the service
+                circuitBreaker.onCallAbandoned(permission);
+                break;
+            default:
+                circuitBreaker.onCallCompleted(permission, result.isSuccessful(),
+                        result.getLatency());
+                break;
+        }
+    }
+
+    private <R> IpcCallResult<R> executeCallThroughBulkhead(@NonNull IpcCall<T, R> call,
+                                                           long deadline,
+                                                           @NonNull Bulkhead bulkhead) {
+        final long startTime = System.nanoTime();
+
+        switch (bulkhead.acquire(deadline)) {
+            case Bulkhead.ACQUIRE_RESULT_ACQUIRED:
+                // the permit is released when the transaction completes, which might be long
+                // after the caller stops waiting
+                return executeCall(call, deadline, bulkhead);
+            case Bulkhead.ACQUIRE_RESULT_REJECTED:
+                return new IpcCallResult<R>(IpcCallResult.STATUS_REJECTED_BULKHEAD, null, null,
+                        System.nanoTime() - startTime);
+            case Bulkhead.ACQUIRE_RESULT_INTERRUPTED:
+                return new IpcCallResult<R>(IpcCallResult.STATUS_CANCELLED, null, null,
+                        System.nanoTime() - startTime);
+            default:
+                throw new IllegalStateException("invalid bulkhead acquire result");
+        }
+    }
+
+    /**
+     * @param permitBulkhead the bulkhead the caller acquired a permit from, or null. The permit is
+     *                       released by this method if the call isn't executed, or by the task
+     *                       which executes the call when its transaction completes.
+     */
+    private <R> IpcCallResult<R> executeCall(@NonNull final IpcCall<T, R> call, long deadline,
+                                             @Nullable Bulkhead permitBulkhead) {
+        final long startTime = System.nanoTime();
+
+        final T service = getService();
+        if (service == null) {
+            releasePermit(permitBulkhead);
+            return new IpcCallResult<R>(IpcCallResult.STATUS_NOT_CONNECTED, null, null, 0);
+        }
+
+        if (mStrandedCalls.get() >= mMaxStrandedCalls) {
+            releasePermit(permitBulkhead);
+            return new IpcCallResult<R>(IpcCallResult.STATUS_REJECTED_STRANDED_CALLS, null, null, 0);
+        }
+
+        CallTask<R> task = new CallTask<>(new Callable<R>() {
+            @Override
+            public R call() throws RemoteException {
+                return call.call(service);
+            }
+        }, permitBulkhead);
+        try {
+            CallExecutor.get().execute(task);
+        } catch (RejectedExecutionException e) {
+            releasePermit(permitBulkhead);
+            return new IpcCallResult<R>(IpcCallResult.STATUS_REJECTED_EXECUTOR_SATURATED, null,
+                    null, System.nanoTime() - startTime);
+        }
+
+        IpcCallResult<R> result;
+        try {
+            R value = task.get(deadline - startTime, TimeUnit.NANOSECONDS);
+            result = new IpcCallResult<R>(IpcCallResult.STATUS_SUCCESS, value, null,
+                    System.nanoTime() - startTime);
+        } catch (TimeoutException e) {
+            task.abandon();
+            mMetrics.incrementCallTimeouts();
+            result = new IpcCallResult<R>(IpcCallResult.STATUS_TIMED_OUT, null, null,
+                    System.nanoTime() - startTime);
+        } catch (InterruptedException e) {
+            task.abandon();
+            // restore interrupted status (was cleared by get())
+            Thread.currentThread().interrupt();
+            result = new IpcCallResult<R>(IpcCallResult.STATUS_CANCELLED, null, null,
+                    System.nanoTime() - startTime);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RemoteException) {
+                result = new IpcCallResult<R>(IpcCallResult.STATUS_REMOTE_ERROR, null,
+                        (RemoteException) cause, System.nanoTime() - startTime);
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new RuntimeException(cause);
+            }
+        }
+
+        mMetrics.recordCallLatency(result.getLatency());
+
+        return result;
+    }
+
+    private static void releasePermit(@Nullable Bulkhead permitBulkhead) {
+        if (permitBulkhead != null) {
+            permitBulkhead.release();
         }
     }
 
@@ -115,7 +551,10 @@ public class IpcServiceConnector {
      *
      * NOTE: if the service disconnects, {@link ServiceConnection#onServiceDisconnected(ComponentName)}
      * of the provided ServiceConnection will be called BEFORE the state of this connector changes
-     * to {@link #STATE_BOUND_DISCONNECTED}.
+     * to {@link #STATE_BOUND_DISCONNECTED}. The exception is the death of service's process - the
+     * connector detects it using {@link IBinder.DeathRecipient} and changes the state to
+     * {@link #STATE_BOUND_DISCONNECTED} immediately (on a binder thread), while
+     * onServiceDisconnected() will be called later on the main thread.
      *
      * @param intent will be used in {@link Context#bindService(Intent, ServiceConnection, int)} call
      * @param serviceConnection will be used in {@link Context#bindService(Intent, ServiceConnection, int)} call
@@ -124,31 +563,255 @@ public class IpcServiceConnector {
      */
     public boolean bindAndConnectToIpcService(@NonNull Intent intent, @NonNull ServiceConnection serviceConnection, int flags) {
 
-        Log.d(mName, "bindAndConnectToIpcService()");
+        ReconnectScheduler reconnectScheduler = mReconnectScheduler;
 
+        boolean isServiceBound;
 
-        synchronized (LOCK) {
-            if (isServiceBound()) {
-                Log.e(mName, "this connector is already bound - aborting binding attempt");
-                return false;
+        try {
+            synchronized (LOCK) {
+                if (isServiceBound()) {
+                    Log.e(mName, "this connector is already bound - aborting binding attempt");
+                    return false;
+                }
+
+                // tasks of the previous session (e.g. unbinding after giving up) must not
+                // affect this one
+                if (reconnectScheduler != null) {
+                    reconnectScheduler.invalidatePendingTasks();
+                }
+
+                mBindIntent = intent;
+                mBindServiceConnection = serviceConnection;
+                mBindFlags = flags;
+
+                isServiceBound = bindLocked();
             }
+        } finally {
+            dispatchDeferredCallbacks();
+        }
+
+        // must not be called while holding LOCK
+        if (reconnectScheduler != null) {
+            reconnectScheduler.onBindRequested(isServiceBound);
+        }
 
-            ServiceConnectionDecorator tempServiceConnectionDecorator =
-                    new ServiceConnectionDecorator(serviceConnection);
+        // there is nothing to probe if the service won't be bound
+        HealthProber<T> healthProber = mHealthProber;
+        if (healthProber != null && (isServiceBound || reconnectScheduler != null)) {
+            healthProber.start();
+        }
 
-            boolean isServiceBound = mContext.bindService(intent,
-                    tempServiceConnectionDecorator, flags);
+        return isServiceBound;
+    }
 
-            if (isServiceBound) {
-                Log.d(mName, "service bound successfully");
-                setStateAndReleaseBlockedThreads(STATE_BOUND_WAITING_FOR_CONNECTION);
-                mServiceConnectionDecorator = tempServiceConnectionDecorator;
-            } else {
-                Log.e(mName, "service binding failed");
-                setStateAndReleaseBlockedThreads(STATE_BINDING_FAILED);
+    private boolean bindLocked() {
+        /*
+         The decorator must be assigned before binding - the system might invoke its callbacks on
+         the main thread before bindService() returns on the calling thread.
+         */
+        mServiceConnectionDecorator = new ServiceConnectionDecorator(mBindServiceConnection);
+
+        boolean isServiceBound = mContext.bindService(mBindIntent,
+                mServiceConnectionDecorator, mBindFlags);
+
+        mTracer.trace(IpcTracer.EVENT_BIND, isServiceBound ? 1 : 0, 0);
+
+        if (isServiceBound) {
+            mBindTime = System.nanoTime();
+            setStateAndReleaseBlockedThreads(STATE_BOUND_WAITING_FOR_CONNECTION);
+        } else {
+            mServiceConnectionDecorator = null;
+            /*
+             When reconnection is enabled, ReconnectScheduler either retries, or gives up and
+             transitions to STATE_UNBOUND (which releases the waiters), therefore the failure isn't
+             final and threads waiting for connection keep waiting.
+             */
+            setStateAndReleaseBlockedThreads(mServicelessSnapshots[STATE_BINDING_FAILED],
+                    mReconnectScheduler == null);
+        }
+
+        return isServiceBound;
+    }
+
+    /**
+     * Set the policy of automatic reconnection. When the policy is set, the connector rebinds the
+     * service (with the parameters of the last call to
+     * {@link #bindAndConnectToIpcService(Intent, ServiceConnection, int)}) if it doesn't reach
+     * {@link #STATE_BOUND_CONNECTED} within policy's connection timeout after binding or
+     * disconnection, or if binding fails. Attempts are spaced by growing randomized delays which
+     * are handled by a shared timer thread.<br><br>
+     *
+     * Reconnection is disabled by {@link #unbindIpcService()}. If the connector gives up (the
+     * maximal number of attempts was exceeded, or the service is crash-looping), it unbinds and
+     * transitions to {@link #STATE_UNBOUND}.<br><br>
+     *
+     * This method should be called before
+     * {@link #bindAndConnectToIpcService(Intent, ServiceConnection, int)}.
+     *
+     * @param reconnectPolicy the policy to use, or null in order to disable automatic reconnection
+     */
+    public void setReconnectPolicy(@Nullable ReconnectPolicy reconnectPolicy) {
+        ReconnectScheduler oldReconnectScheduler = mReconnectScheduler;
+        if (oldReconnectScheduler != null) {
+            oldReconnectScheduler.stop();
+        }
+
+        mReconnectScheduler = reconnectPolicy == null ?
+                null : new ReconnectScheduler(this, reconnectPolicy, mTracer);
+    }
+
+    /**
+     * Attach circuit breaker to calls executed by {@link #call(IpcCall, long)}. While the breaker
+     * is open, calls are rejected without a binder transaction and without waiting for their
+     * deadlines.
+     * @param circuitBreaker the breaker to use, or null in order to detach the current one
+     */
+    public void setCircuitBreaker(@Nullable CircuitBreaker circuitBreaker) {
+        if (circuitBreaker != null) {
+            circuitBreaker.setTracer(mTracer);
+        }
+        mCircuitBreaker = circuitBreaker;
+    }
+
+    @Nullable
+    public CircuitBreaker getCircuitBreaker() {
+        return mCircuitBreaker;
+    }
+
+    /**
+     * Attach bulkhead which limits the number of calls executed concurrently by
+     * {@link #call(IpcCall, long)}. A permit is held until the binder transaction of the call
+     * completes, even if the caller stops waiting earlier, therefore calls blocked in a hung
+     * service can't be replaced by new ones. Calls which are in progress when the bulkhead is
+     * replaced release their permits to the bulkhead they acquired them from.
+     * @param bulkhead the bulkhead to use, or null in order to detach the current one
+     */
+    public void setBulkhead(@Nullable Bulkhead bulkhead) {
+        mBulkhead = bulkhead;
+    }
+
+    @Nullable
+    public Bulkhead getBulkhead() {
+        return mBulkhead;
+    }
+
+    /**
+     * Set the maximal number of stranded calls - calls whose callers stopped waiting while their
+     * binder transactions are still in progress. Binder transactions can't be aborted, therefore
+     * each stranded call keeps a thread of the calling process and a binder thread of the service
+     * busy. When the limit is reached, {@link #call(IpcCall, long)} rejects new calls until some
+     * of the stranded calls complete.
+     * @param maxStrandedCalls the limit; the default is {@value #DEFAULT_MAX_STRANDED_CALLS}
+     */
+    public void setMaxStrandedCalls(int maxStrandedCalls) {
+        if (maxStrandedCalls <= 0) {
+            throw new IllegalArgumentException("max stranded calls must be positive");
+        }
+        mMaxStrandedCalls = maxStrandedCalls;
+    }
+
+    /**
+     * @return the number of calls whose callers stopped waiting while their binder transactions
+     *         are still in progress
+     */
+    public int getStrandedCallsCount() {
+        return mStrandedCalls.get();
+    }
+
+    /**
+     * Attach prober which periodically checks the health of the connected service. The prober
+     * runs while the service is bound; probes are executed directly on the service and bypass
+     * the circuit breaker, the bulkhead and the metrics of {@link #call(IpcCall, long)}.
+     * @param healthProber the prober to use, or null in order to detach the current one
+     * @throws IllegalStateException if the prober is attached to another connector
+     */
+    public void setHealthProber(@Nullable HealthProber<T> healthProber) {
+        HealthProber<T> oldHealthProber = mHealthProber;
+        if (oldHealthProber == healthProber) {
+            return;
+        }
+        if (oldHealthProber != null) {
+            oldHealthProber.stop();
+        }
+
+        if (healthProber != null) {
+            healthProber.attach(this, mTracer);
+        }
+        mHealthProber = healthProber;
+
+        if (healthProber != null && isServiceBound()) {
+            healthProber.start();
+        }
+    }
+
+    @Nullable
+    public HealthProber<T> getHealthProber() {
+        return mHealthProber;
+    }
+
+    /**
+     * @return true if the attached {@link HealthProber} marked the connection as degraded; false
+     *         otherwise (including the case when no prober is attached)
+     */
+    public boolean isDegraded() {
+        HealthProber<T> healthProber = mHealthProber;
+        return healthProber != null && healthProber.isDegraded();
+    }
+
+    /**
+     * Unbind (if bound) and bind again using the parameters of the last binding attempt. Called
+     * by {@link ReconnectScheduler}. The connector doesn't pass through {@link #STATE_UNBOUND},
+     * and a failed attempt transitions to {@link #STATE_BINDING_FAILED} without releasing the
+     * waiters for other states, therefore threads waiting for connection are not released until
+     * the scheduler gives up.
+     * @return true if the service was bound
+     */
+    boolean rebind(@NonNull ReconnectScheduler reconnectScheduler, int generation) {
+        boolean isServiceBound;
+        try {
+            synchronized (LOCK) {
+                // the attempt might have been superseded by explicit (un)binding
+                if (mBindIntent == null || !reconnectScheduler.isCurrent(generation)) {
+                    return false;
+                }
+                if (getState() == STATE_BOUND_CONNECTED) {
+                    return true; // connected while the attempt was handed over
+                }
+                if (mServiceConnectionDecorator != null) {
+                    mServiceConnectionDecorator.unlinkToDeathLocked();
+                    mContext.unbindService(mServiceConnectionDecorator);
+                    mServiceConnectionDecorator = null;
+                }
+                isServiceBound = bindLocked();
             }
+        } finally {
+            dispatchDeferredCallbacks();
+        }
+        return isServiceBound;
+    }
+
+    /**
+     * Called by {@link ReconnectScheduler} when it gives up reconnection attempts
+     */
+    void unbindAfterReconnectGaveUp(@NonNull ReconnectScheduler reconnectScheduler,
+                                    int generation) {
+        HealthProber<T> healthProber = mHealthProber;
+        if (healthProber != null) {
+            healthProber.stop();
+        }
 
-            return isServiceBound;
+        try {
+            synchronized (LOCK) {
+                // the connector might have been bound or unbound explicitly in the meantime
+                if (!reconnectScheduler.isCurrent(generation)) {
+                    return;
+                }
+                unbindLocked();
+                // the service might not be bound if the last attempt failed
+                setStateAndReleaseBlockedThreads(STATE_UNBOUND);
+            }
+        } finally {
+            dispatchDeferredCallbacks();
         }
     }
 
@@ -176,43 +839,201 @@ public class IpcServiceConnector {
      *
      * @param blockingTimeout the period of time (in milliseconds) after which the calling thread will
      *                        be unblocked (regardless of the state of this IpcServiceConnector)
-     * @return true if target state was reached; false otherwise
+     * @return true if target state was reached; false otherwise (including the case when the
+     *         connector transitioned to a terminal state, as described in
+     *         {@link #waitForAnyState(int, long)})
      */
     @WorkerThread
     public boolean waitForState(int targetState, int blockingTimeout) {
-        synchronized (LOCK) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockingTimeout);
+        return waitForAnyState(statesMask(targetState), deadline) == targetState;
+    }
 
-            if (mConnectionState == targetState) {
-                return true;
-            }
+    /**
+     * Call to this method will block the calling thread until this connector transitions to any
+     * of the specified states, or until the specified deadline. If the connector is already in
+     * one of the requested states then this method returns immediately.<br><br>
+     *
+     * The same notes as for {@link #waitForState(int, int)} apply.<br><br>
+     *
+     * If the connector transitions to a terminal state (see {@link #isTerminalState(int)}) which
+     * is not among the target states, then the target states can't be reached without a new
+     * binding attempt, and the calling thread is unblocked immediately. In this case the returned
+     * value is the terminal state. Waits which start while the connector is already in a terminal
+     * state are not affected (a new binding attempt might be on its way).<br><br>
+     *
+     * When automatic reconnection is enabled (see {@link #setReconnectPolicy(ReconnectPolicy)}),
+     * {@link #STATE_BINDING_FAILED} is followed by another attempt, therefore it doesn't unblock
+     * the calling thread (unless it's among the target states). The thread is unblocked with
+     * {@link #STATE_UNBOUND} if the connector gives up.<br><br>
+     *
+     * This method MUST NOT be called from UI thread.
+     * @param targetStatesMask the states in which the calling thread should be unblocked, as
+     *                         returned by {@link #statesMask(int...)}
+     * @param deadline the value of {@link System#nanoTime()} at which the calling thread will be
+     *                 unblocked (regardless of the state of this IpcServiceConnector)
+     * @return the state that was reached (either one of the target states, or a terminal state),
+     *         {@link #WAIT_RESULT_TIMED_OUT} if the deadline passed, or
+     *         {@link #WAIT_RESULT_INTERRUPTED} if the calling thread was interrupted
+     */
+    @WorkerThread
+    public int waitForAnyState(int targetStatesMask, long deadline) {
+        checkStatesMask(targetStatesMask);
+
+        int currentState = getState();
+        if (isInMask(currentState, targetStatesMask)) {
+            return currentState;
+        }
+
+        mTracer.trace(IpcTracer.EVENT_WAIT_STARTED, targetStatesMask, 0);
 
-            Log.d(mName, "waitForState(); target state: " + getStateName(targetState) +
-                    "; calling thread: " + Thread.currentThread().getName());
+        final long waitStartTime = System.nanoTime();
 
-            final long blockingOnsetTime = System.currentTimeMillis();
+        BlockingStateWaiter waiter = new BlockingStateWaiter(targetStatesMask, Thread.currentThread());
+        enqueueWaiter(waiter);
 
-            // wait until the target state, or until timeout
-            while (mConnectionState != targetState
-                    && System.currentTimeMillis() < blockingOnsetTime + blockingTimeout
-                    && !Thread.currentThread().isInterrupted()) {
+        try {
+            // wait until any of the target states, or until the deadline
+            while (!waiter.isFinished()) {
 
-                Log.d(mName, "blocking execution of thread: " + Thread.currentThread().getName());
+                currentState = getState();
+                if (isInMask(currentState, targetStatesMask)) {
+                    waiter.finish(currentState);
+                    break;
+                }
+
+                if (Thread.currentThread().isInterrupted()) {
+                    waiter.finish(WAIT_RESULT_INTERRUPTED);
+                    break;
+                }
 
-                try {
-                    LOCK.wait(blockingTimeout);
-                } catch (InterruptedException e) {
-                    // restore interrupted status (was cleared by wait())
-                    Thread.currentThread().interrupt();
+                long remainingTime = deadline - System.nanoTime();
+                if (remainingTime <= 0) {
+                    waiter.finish(WAIT_RESULT_TIMED_OUT);
+                    break;
                 }
 
+                mTracer.trace(IpcTracer.EVENT_WAIT_BLOCKED, targetStatesMask, 0);
+
+                // returns upon release, deadline or interrupt (interrupted status is preserved)
+                LockSupport.parkNanos(this, remainingTime);
             }
+        } finally {
+            dequeueWaiter(waiter);
+        }
+
+        int result = waiter.getResult();
+
+        mTracer.trace(IpcTracer.EVENT_WAIT_FINISHED, targetStatesMask, result);
+
+        mMetrics.recordWaitTime(System.nanoTime() - waitStartTime);
+        if (result == WAIT_RESULT_TIMED_OUT) {
+            mMetrics.incrementWaitTimeouts();
+        }
+
+        return result;
+    }
+
+    /**
+     * Asynchronous counterpart of {@link #waitForState(int, int)} - no thread is blocked while
+     * waiting. The timeout is handled by a timer thread shared by all connectors.<br><br>
+     *
+     * The returned {@link Future} completes with the target state if it was reached, with a
+     * terminal state which made the target state unreachable, or with
+     * {@link #WAIT_RESULT_TIMED_OUT}. If the connector is already in the target state then the
+     * returned Future is completed immediately.<br><br>
+     *
+     * The callback is handed to the executor only after connector's internal lock is released.
+     * Therefore, even with a direct executor (which runs the callback on the thread that completed
+     * the wait), the callback may call into this connector (e.g. in order to bind it again).
+     *
+     * @param targetState IpcServiceConnector's state the completion should wait for
+     * @param timeout the period of time (in milliseconds) after which the wait completes with
+     *                {@link #WAIT_RESULT_TIMED_OUT}
+     * @param executor the executor which will be used in order to invoke the callback
+     * @param callback will be notified once when the wait completes, unless the wait is cancelled
+     * @return Future representing the pending wait
+     */
+    public StateWaitFuture waitForStateAsync(int targetState, int timeout,
+                                             @Nullable Executor executor,
+                                             @Nullable StateWaitCallback callback) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        return waitForAnyStateAsync(statesMask(targetState), deadline, executor, callback);
+    }
+
+    /**
+     * Same as {@link #waitForStateAsync(int, int, Executor, StateWaitCallback)}, but without
+     * a callback
+     */
+    public StateWaitFuture waitForStateAsync(int targetState, int timeout) {
+        return waitForStateAsync(targetState, timeout, null, null);
+    }
+
+    /**
+     * Asynchronous counterpart of {@link #waitForAnyState(int, long)}.
+     *
+     * @param targetStatesMask the states the completion should wait for, as returned by
+     *                         {@link #statesMask(int...)}
+     * @param deadline the value of {@link System#nanoTime()} at which the wait completes with
+     *                 {@link #WAIT_RESULT_TIMED_OUT}
+     * @param executor the executor which will be used in order to invoke the callback
+     * @param callback will be notified once when the wait completes, unless the wait is cancelled
+     * @return Future representing the pending wait
+     */
+    public StateWaitFuture waitForAnyStateAsync(int targetStatesMask, long deadline,
+                                                @Nullable Executor executor,
+                                                @Nullable StateWaitCallback callback) {
+        checkStatesMask(targetStatesMask);
 
-            boolean targetStateReached = mConnectionState == targetState;
+        if (callback != null && executor == null) {
+            throw new IllegalArgumentException("executor must be provided along with callback");
+        }
+
+        StateWaitFuture waiter = new StateWaitFuture(targetStatesMask, executor, callback);
+        enqueueWaiter(waiter);
+
+        waiter.scheduleTimeout(deadline - System.nanoTime());
+
+        // the state might have changed before the waiter was enqueued
+        int currentState = getState();
+        if (isInMask(currentState, targetStatesMask)) {
+            waiter.finish(currentState);
+        }
 
-            Log.d(mName, "thread unblocked: " + Thread.currentThread().getName() +
-            "; current state: " + getStateName(mConnectionState) + "; target state: " + getStateName(targetState));
+        return waiter;
+    }
 
-            return targetStateReached;
+    private void enqueueWaiter(StateWaiter waiter) {
+        for (int state = 0; state < STATES_COUNT; state++) {
+            if (isInMask(state, waiter.mTargetStatesMask)) {
+                mWaiters[state].add(waiter);
+            }
+        }
+    }
+
+    private void dequeueWaiter(StateWaiter waiter) {
+        for (int state = 0; state < STATES_COUNT; state++) {
+            if (isInMask(state, waiter.mTargetStatesMask)) {
+                mWaiters[state].remove(waiter);
+            }
+        }
+    }
+
+    /**
+     * Hand the callbacks deferred by the current thread to their executors. Must be called in a
+     * finally clause of each block which holds LOCK and might change the state - otherwise, if
+     * the block throws (e.g. bindService() throws SecurityException), the callbacks would stay
+     * queued until an unrelated block completes on the same thread.
+     */
+    private void dispatchDeferredCallbacks() {
+        ArrayList<Runnable> deferredCallbacks = mDeferredCallbacks.get();
+        if (deferredCallbacks.isEmpty()) {
+            return;
+        }
+        Runnable[] callbacks = deferredCallbacks.toArray(new Runnable[deferredCallbacks.size()]);
+        deferredCallbacks.clear();
+        for (Runnable callback : callbacks) {
+            callback.run();
         }
     }
 
@@ -220,33 +1041,92 @@ public class IpcServiceConnector {
      * Unbind from a bound service. Has no effect if no service was bound.
      */
     public void unbindIpcService() {
-        Log.d(mName, "unbindIpcService()");
+        ReconnectScheduler reconnectScheduler = mReconnectScheduler;
+        if (reconnectScheduler != null) {
+            reconnectScheduler.stop();
+        }
+
+        HealthProber<T> healthProber = mHealthProber;
+        if (healthProber != null) {
+            healthProber.stop();
+        }
 
+        try {
+            synchronized (LOCK) {
+                unbindLocked();
+            }
+        } finally {
+            dispatchDeferredCallbacks();
+        }
+    }
+
+    private void unbindLocked() {
         if (isServiceBound()) {
+            mServiceConnectionDecorator.unlinkToDeathLocked();
             mContext.unbindService(mServiceConnectionDecorator);
             mServiceConnectionDecorator = null;
+            mTracer.trace(IpcTracer.EVENT_UNBIND, 1, 0);
             setStateAndReleaseBlockedThreads(STATE_UNBOUND);
         } else {
-            Log.d(mName, "no bound IPC service");
+            mTracer.trace(IpcTracer.EVENT_UNBIND, 0, 0);
         }
     }
 
+    /**
+     * Pass the recent state transitions of this connector (oldest first) to the given sink. Each
+     * entry contains the previous state, the new state, monotonic timestamp
+     * ({@link System#nanoTime()}) and the id of the thread which performed the transition.<br><br>
+     *
+     * The connector always records the last {@value #TRANSITION_LOG_CAPACITY} transitions into
+     * a preallocated ring buffer, regardless of the tracer it was constructed with. Recording is
+     * lock-free and doesn't allocate - strings are produced only by this method.
+     */
+    public void dumpTransitions(@NonNull TraceSink sink) {
+        mTransitionLog.dump(sink);
+    }
+
+    /**
+     * @return snapshot of connection and wait statistics of this connector
+     */
+    @NonNull
+    public ConnectorMetrics.Snapshot getMetricsSnapshot() {
+        return mMetrics.getSnapshot();
+    }
+
+    /**
+     * The connector detects the death of service's process using {@link IBinder.DeathRecipient},
+     * which is usually faster than {@link ServiceConnection#onServiceDisconnected(ComponentName)}
+     * callback dispatched through the main thread.
+     * @return the time (in nanoseconds) between the detection of the last death of the service and
+     *         the subsequent onServiceDisconnected() callback, or -1 if no death was detected yet
+     */
+    public long getLastDeathDetectionLead() {
+        return mLastDeathDetectionLead;
+    }
+
     /**
      * @return true if the state of this connector corresponds to a bound service; false otherwise
      */
     public boolean isServiceBound() {
-        synchronized (LOCK) {
-            switch (mConnectionState) {
-                case STATE_BOUND_WAITING_FOR_CONNECTION:
-                case STATE_BOUND_CONNECTED:
-                case STATE_BOUND_DISCONNECTED:
-                    return true;
-                default:
-                    return false;
-            }
+        switch (getState()) {
+            case STATE_BOUND_WAITING_FOR_CONNECTION:
+            case STATE_BOUND_CONNECTED:
+            case STATE_BOUND_DISCONNECTED:
+                return true;
+            default:
+                return false;
         }
     }
 
+    /**
+     * @return true if the service is bound, or if binding failed and the connector will retry it
+     *         according to its {@link ReconnectPolicy}
+     */
+    boolean isServiceBoundOrRebinding() {
+        return isServiceBound()
+                || (getState() == STATE_BINDING_FAILED && mReconnectScheduler != null);
+    }
+
     /**
      * @return the name of this instance of IpcServiceConnector for logging purposes
      */
@@ -254,6 +1134,77 @@ public class IpcServiceConnector {
         return mName;
     }
 
+    /**
+     * @return the mask representing the given set of states, for use with
+     *         {@link #waitForAnyState(int, long)} and
+     *         {@link #waitForAnyStateAsync(int, long, Executor, StateWaitCallback)}
+     */
+    public static int statesMask(int... connectionStates) {
+        int mask = 0;
+        for (int connectionState : connectionStates) {
+            checkState(connectionState);
+            mask |= 1 << connectionState;
+        }
+        return mask;
+    }
+
+    /**
+     * Terminal states are the states from which no other state can be reached without a new call
+     * to {@link #bindAndConnectToIpcService(Intent, ServiceConnection, int)}. These are
+     * {@link #STATE_UNBOUND} and {@link #STATE_BINDING_FAILED}. Note that when automatic
+     * reconnection is enabled, the connector rebinds from {@link #STATE_BINDING_FAILED} by itself
+     * (see {@link #waitForAnyState(int, long)}).
+     * @return true if the given state is terminal; false otherwise
+     */
+    public static boolean isTerminalState(int connectionState) {
+        return connectionState == STATE_UNBOUND || connectionState == STATE_BINDING_FAILED;
+    }
+
+    private static boolean isInMask(int connectionState, int statesMask) {
+        return ((1 << connectionState) & statesMask) != 0;
+    }
+
+    private static void checkState(int connectionState) {
+        if (connectionState < 0 || connectionState >= STATES_COUNT) {
+            throw new IllegalArgumentException("invalid state: " + connectionState);
+        }
+    }
+
+    private static void checkStatesMask(int statesMask) {
+        if (statesMask == 0 || (statesMask >>> STATES_COUNT) != 0) {
+            throw new IllegalArgumentException("invalid states mask: " + statesMask);
+        }
+    }
+
+    /**
+     * @return human readable representation of a states mask for logging purposes
+     */
+    static String getStatesMaskName(int statesMask) {
+        StringBuilder sb = new StringBuilder();
+        for (int state = 0; state < STATES_COUNT; state++) {
+            if (isInMask(state, statesMask)) {
+                sb.append(sb.length() == 0 ? "" : "|").append(getStateName(state));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return human readable representation of a wait result for logging purposes
+     */
+    public static String getWaitResultName(int waitResult) {
+        switch (waitResult) {
+            case WAIT_RESULT_TIMED_OUT:
+                return "WAIT_RESULT_TIMED_OUT";
+            case WAIT_RESULT_INTERRUPTED:
+                return "WAIT_RESULT_INTERRUPTED";
+            case WAIT_RESULT_CANCELLED:
+                return "WAIT_RESULT_CANCELLED";
+            default:
+                return getStateName(waitResult);
+        }
+    }
+
     /**
      * @return human readable representation of connector's state for logging purposes
      */
@@ -277,6 +1228,223 @@ public class IpcServiceConnector {
     }
 
 
+    /**
+     * A pending wait for any of the states this waiter is queued for. Each waiter completes exactly
+     * once - either by the thread which performs a transition to one of the target states, or due
+     * to a timeout.
+     */
+    private static abstract class StateWaiter {
+
+        private static final AtomicIntegerFieldUpdater<StateWaiter> RESULT_UPDATER =
+                AtomicIntegerFieldUpdater.newUpdater(StateWaiter.class, "mResult");
+
+        protected final int mTargetStatesMask;
+
+        private volatile int mResult = WAIT_RESULT_PENDING;
+
+        public StateWaiter(int targetStatesMask) {
+            mTargetStatesMask = targetStatesMask;
+        }
+
+        /**
+         * @return true if this call completed the wait; false if it had already been completed
+         */
+        public boolean finish(int result) {
+            if (RESULT_UPDATER.compareAndSet(this, WAIT_RESULT_PENDING, result)) {
+                onFinished(result);
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        public boolean isFinished() {
+            return mResult != WAIT_RESULT_PENDING;
+        }
+
+        public int getResult() {
+            return mResult;
+        }
+
+        protected abstract void onFinished(int result);
+    }
+
+    /**
+     * A thread blocked in {@link #waitForAnyState(int, long)}
+     */
+    private static class BlockingStateWaiter extends StateWaiter {
+
+        private final Thread mThread;
+
+        public BlockingStateWaiter(int targetStatesMask, @NonNull Thread thread) {
+            super(targetStatesMask);
+            mThread = thread;
+        }
+
+        @Override
+        protected void onFinished(int result) {
+            LockSupport.unpark(mThread);
+        }
+    }
+
+    /**
+     * A pending wait initiated by
+     * {@link #waitForAnyStateAsync(int, long, Executor, StateWaitCallback)}.
+     * {@link #get()} blocks the calling thread; callers which must not block should use
+     * a callback instead.
+     */
+    public final class StateWaitFuture extends StateWaiter implements Future<Integer> {
+
+        private final Executor mExecutor;
+        private final StateWaitCallback mCallback;
+
+        private final CountDownLatch mDoneLatch = new CountDownLatch(1);
+
+        private volatile ScheduledFuture<?> mTimeoutTask;
+
+        private StateWaitFuture(int targetStatesMask, @Nullable Executor executor,
+                                @Nullable StateWaitCallback callback) {
+            super(targetStatesMask);
+            mExecutor = executor;
+            mCallback = callback;
+        }
+
+        private void scheduleTimeout(long timeoutNanos) {
+            mTimeoutTask = ConnectorScheduler.get().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (finish(WAIT_RESULT_TIMED_OUT)) {
+                        mMetrics.incrementWaitTimeouts();
+                    }
+                }
+            }, timeoutNanos, TimeUnit.NANOSECONDS);
+
+            // the wait might have completed before the timeout task was assigned
+            if (isFinished()) {
+                mTimeoutTask.cancel(false);
+            }
+        }
+
+        @Override
+        protected void onFinished(final int result) {
+            dequeueWaiter(this);
+
+            ScheduledFuture<?> timeoutTask = mTimeoutTask;
+            if (timeoutTask != null) {
+                timeoutTask.cancel(false);
+            }
+
+            mDoneLatch.countDown();
+
+            if (mCallback != null && result != WAIT_RESULT_CANCELLED) {
+                Runnable dispatchCallback = new Runnable() {
+                    @Override
+                    public void run() {
+                        mExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                mCallback.onStateWaitFinished(result);
+                            }
+                        });
+                    }
+                };
+                if (Thread.holdsLock(LOCK)) {
+                    // the thread which performs the transition dispatches it after releasing LOCK
+                    mDeferredCallbacks.get().add(dispatchCallback);
+                } else {
+                    dispatchCallback.run();
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return finish(WAIT_RESULT_CANCELLED);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return getResult() == WAIT_RESULT_CANCELLED;
+        }
+
+        @Override
+        public boolean isDone() {
+            return isFinished();
+        }
+
+        @Override
+        public Integer get() throws InterruptedException, ExecutionException {
+            mDoneLatch.await();
+            return getCompletedResult();
+        }
+
+        @Override
+        public Integer get(long timeout, @NonNull TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            if (!mDoneLatch.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return getCompletedResult();
+        }
+
+        private Integer getCompletedResult() {
+            int result = getResult();
+            if (result == WAIT_RESULT_CANCELLED) {
+                throw new CancellationException();
+            }
+            return result;
+        }
+    }
+
+
+    /**
+     * Call executed on {@link CallExecutor}. The task is never cancelled - the binder transaction
+     * can't be aborted, therefore the task always runs to completion and accounts for itself if
+     * its caller stopped waiting in the meantime. The bulkhead permit of the call (if any) is
+     * held until the transaction completes, such that calls blocked in a hung service keep
+     * counting against the bulkhead.
+     */
+    private class CallTask<R> extends FutureTask<R> {
+
+        private static final int TASK_STATE_RUNNING = 0;
+        private static final int TASK_STATE_COMPLETED = 1;
+        private static final int TASK_STATE_ABANDONED = 2;
+
+        private final Bulkhead mPermitBulkhead;
+
+        private final AtomicInteger mTaskState = new AtomicInteger(TASK_STATE_RUNNING);
+
+        private CallTask(@NonNull Callable<R> callable, @Nullable Bulkhead permitBulkhead) {
+            super(callable);
+            mPermitBulkhead = permitBulkhead;
+        }
+
+        @Override
+        public void run() {
+            try {
+                super.run();
+            } finally {
+                releasePermit(mPermitBulkhead);
+                if (!mTaskState.compareAndSet(TASK_STATE_RUNNING, TASK_STATE_COMPLETED)) {
+                    // the caller stopped waiting - this call is no longer stranded
+                    mStrandedCalls.decrementAndGet();
+                }
+            }
+        }
+
+        /**
+         * Called by the caller which stops waiting for the result
+         */
+        private void abandon() {
+            // counted in advance, such that completion never observes an uncounted call
+            mStrandedCalls.incrementAndGet();
+            if (!mTaskState.compareAndSet(TASK_STATE_RUNNING, TASK_STATE_ABANDONED)) {
+                mStrandedCalls.decrementAndGet(); // completed in the meantime
+            }
+        }
+    }
+
+
     /**
      * This class is a decorator for an externally supplied {@link ServiceConnection}. It
      * is used in order to manage the state of IpcServiceConnector in accordance with callbacks
@@ -286,19 +1454,66 @@ public class IpcServiceConnector {
 
         private ServiceConnection mDecorated;
 
+        // guarded by LOCK
+        private ConnectionDeathRecipient mDeathRecipient;
+
         public ServiceConnectionDecorator(@NonNull ServiceConnection decorated) {
             this.mDecorated = decorated;
         }
 
+        /**
+         * @return true if the connection represented by this decorator was unbound (e.g. replaced
+         *         upon reconnection), but the callback had already been dispatched by the system
+         */
+        private boolean isObsolete() {
+            return mServiceConnectionDecorator != this;
+        }
+
         @Override
         public void onServiceConnected(ComponentName name, IBinder binder) {
             /*
             System will invoke this method after a connection to the already bound service will be
             established.
              */
+            if (isObsolete()) {
+                return;
+            }
+
+            T service = mBinderConverter.asInterface(binder);
+
             mDecorated.onServiceConnected(name, binder);
 
-            setStateAndReleaseBlockedThreads(STATE_BOUND_CONNECTED);
+            // serialized with binding in order to prevent concurrent (re)binding from overriding
+            // the state set here
+            try {
+                synchronized (LOCK) {
+                    if (isObsolete()) {
+                        return;
+                    }
+
+                    ConnectionSnapshot<T> connectedSnapshot =
+                            new ConnectionSnapshot<>(STATE_BOUND_CONNECTED, service);
+
+                    unlinkToDeathLocked();
+                    try {
+                        ConnectionDeathRecipient deathRecipient =
+                                new ConnectionDeathRecipient(binder, connectedSnapshot);
+                        binder.linkToDeath(deathRecipient, 0);
+                        mDeathRecipient = deathRecipient;
+                    } catch (RemoteException e) {
+                        // the service is already dead - onServiceDisconnected() will follow shortly
+                    }
+
+                    setStateAndReleaseBlockedThreads(connectedSnapshot);
+                }
+            } finally {
+                dispatchDeferredCallbacks();
+            }
+
+            ReconnectScheduler reconnectScheduler = mReconnectScheduler;
+            if (reconnectScheduler != null) {
+                reconnectScheduler.onConnected();
+            }
         }
 
         @Override
@@ -310,9 +1525,100 @@ public class IpcServiceConnector {
             and invoke onServiceConnected() in order to let us know that the service is connected
             again.
              */
+            if (isObsolete()) {
+                return;
+            }
+
             mDecorated.onServiceDisconnected(name);
 
-            setStateAndReleaseBlockedThreads(STATE_BOUND_DISCONNECTED);
+            boolean deathAlreadyHandled;
+
+            try {
+                synchronized (LOCK) {
+                    if (isObsolete()) {
+                        return;
+                    }
+
+                    long deathDetectionTime = mDeathRecipient != null ?
+                            mDeathRecipient.mDeathDetectionTime : 0;
+                    deathAlreadyHandled = deathDetectionTime != 0;
+
+                    unlinkToDeathLocked();
+
+                    if (deathAlreadyHandled) {
+                        mLastDeathDetectionLead = System.nanoTime() - deathDetectionTime;
+                        mTracer.trace(IpcTracer.EVENT_DEATH_DETECTION_LEAD,
+                                (int) TimeUnit.NANOSECONDS.toMicros(mLastDeathDetectionLead), 0);
+                    } else {
+                        setStateAndReleaseBlockedThreads(STATE_BOUND_DISCONNECTED);
+                    }
+                }
+            } finally {
+                dispatchDeferredCallbacks();
+            }
+
+            ReconnectScheduler reconnectScheduler = mReconnectScheduler;
+            if (reconnectScheduler != null && !deathAlreadyHandled) {
+                reconnectScheduler.onDisconnected();
+            }
+        }
+
+        private void unlinkToDeathLocked() {
+            if (mDeathRecipient != null) {
+                mDeathRecipient.mBinder.unlinkToDeath(mDeathRecipient, 0);
+                mDeathRecipient = null;
+            }
+        }
+
+        private void onBinderDied(ConnectionDeathRecipient deathRecipient) {
+            try {
+                synchronized (LOCK) {
+                    // the connection this recipient was registered for must still be the
+                    // current one
+                    if (isObsolete()
+                            || mDeathRecipient != deathRecipient
+                            || mConnectionSnapshot.get() != deathRecipient.mConnectedSnapshot) {
+                        return;
+                    }
+
+                    deathRecipient.mDeathDetectionTime = System.nanoTime();
+                    mTracer.trace(IpcTracer.EVENT_BINDER_DIED, 0, 0);
+                    setStateAndReleaseBlockedThreads(STATE_BOUND_DISCONNECTED);
+                }
+            } finally {
+                dispatchDeferredCallbacks();
+            }
+
+            ReconnectScheduler reconnectScheduler = mReconnectScheduler;
+            if (reconnectScheduler != null) {
+                reconnectScheduler.onDisconnected();
+            }
+        }
+
+        /**
+         * Detects the death of the process which hosts the connected service. Each connection
+         * registers its own recipient, which allows to ignore notifications about connections
+         * which were already replaced.
+         */
+        private class ConnectionDeathRecipient implements IBinder.DeathRecipient {
+
+            private final IBinder mBinder;
+            private final ConnectionSnapshot<T> mConnectedSnapshot;
+
+            // guarded by LOCK
+            private long mDeathDetectionTime = 0;
+
+            public ConnectionDeathRecipient(@NonNull IBinder binder,
+                                            @NonNull ConnectionSnapshot<T> connectedSnapshot) {
+                mBinder = binder;
+                mConnectedSnapshot = connectedSnapshot;
+            }
+
+            @Override
+            public void binderDied() {
+                // called on a binder thread
+                onBinderDied(this);
+            }
         }
     }
 
@@ -0,0 +1,462 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.IInterface;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Group of {@link IpcServiceConnector}s bound to replicas of the same IPC service which run in
+ * different processes. Calls executed through the group are spread among the connected replicas,
+ * therefore the load is served by the binder thread pools of several processes, and the death of
+ * one process affects only the calls routed to its replica.<br><br>
+ *
+ * Each replica is handled by its own connector, which can be obtained with
+ * {@link #getConnector(int)} in order to configure circuit breakers, health probers, inspect
+ * metrics, etc.
+ * @param <T> the interface of IPC service
+ */
+public class IpcServiceConnectorGroup<T extends IInterface> {
+
+    /**
+     * Calls are assigned to the connected replicas in turns
+     */
+    public static final int BALANCING_ROUND_ROBIN = 0;
+
+    /**
+     * Calls are assigned to the connected replica with the least number of outstanding calls
+     */
+    public static final int BALANCING_LEAST_OUTSTANDING = 1;
+
+    /**
+     * All calls are assigned to the primary replica, while the other replicas are kept bound and
+     * connected as hot standbys. When the primary replica can't accept calls (e.g. the death of
+     * its process was detected), the next connected replica becomes the primary immediately. The
+     * connector of the former primary reconnects in background and becomes a standby.
+     */
+    public static final int BALANCING_FAILOVER = 2;
+
+    private static final int CONNECTED_STATES_MASK =
+            IpcServiceConnector.statesMask(IpcServiceConnector.STATE_BOUND_CONNECTED);
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    private final IpcServiceConnector<T>[] mConnectors;
+    private final int mBalancingPolicy;
+
+    /**
+     * Used as the starting point of replica selection
+     */
+    private final AtomicInteger mNextReplica = new AtomicInteger(0);
+
+    /**
+     * The number of calls currently executed through each replica
+     */
+    private final AtomicIntegerArray mOutstandingCalls;
+
+    /**
+     * The replica which serves all calls when {@link #BALANCING_FAILOVER} is used
+     */
+    private final AtomicInteger mPrimaryReplica = new AtomicInteger(0);
+
+    private final AtomicInteger mFailovers = new AtomicInteger(0);
+
+    /**
+     * @param context will be used in order to bind/unbind services
+     * @param name the name of the newly created instance for logging purposes (replicas'
+     *             connectors are named after it)
+     * @param binderConverter will be used once per connection in order to obtain the interface
+     *                        of the connected replica
+     * @param replicasCount the number of replicas
+     * @param balancingPolicy one of {@link #BALANCING_ROUND_ROBIN},
+     *                        {@link #BALANCING_LEAST_OUTSTANDING} or {@link #BALANCING_FAILOVER}
+     * @param tracer will be notified about state changes, waits, etc. of all replicas' connectors
+     */
+    public IpcServiceConnectorGroup(@NonNull Context context, @NonNull String name,
+                                    @NonNull BinderConverter<T> binderConverter,
+                                    int replicasCount, int balancingPolicy,
+                                    @NonNull IpcTracer tracer) {
+        if (replicasCount <= 0) {
+            throw new IllegalArgumentException("invalid replicas count: " + replicasCount);
+        }
+        if (balancingPolicy != BALANCING_ROUND_ROBIN
+                && balancingPolicy != BALANCING_LEAST_OUTSTANDING
+                && balancingPolicy != BALANCING_FAILOVER) {
+            throw new IllegalArgumentException("invalid balancing policy: " + balancingPolicy);
+        }
+
+        mBalancingPolicy = balancingPolicy;
+        mOutstandingCalls = new AtomicIntegerArray(replicasCount);
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        IpcServiceConnector<T>[] connectors = new IpcServiceConnector[replicasCount];
+        mConnectors = connectors;
+        for (int i = 0; i < replicasCount; i++) {
+            mConnectors[i] = new IpcServiceConnector<>(context, name + "#" + i,
+                    binderConverter, tracer);
+        }
+    }
+
+    public int getReplicasCount() {
+        return mConnectors.length;
+    }
+
+    /**
+     * @return the connector of the replica at the given index
+     */
+    @NonNull
+    public IpcServiceConnector<T> getConnector(int replica) {
+        return mConnectors[replica];
+    }
+
+    /**
+     * Set the same reconnection policy for all replicas.
+     * See {@link IpcServiceConnector#setReconnectPolicy(ReconnectPolicy)}
+     */
+    public void setReconnectPolicy(@Nullable ReconnectPolicy reconnectPolicy) {
+        for (IpcServiceConnector<T> connector : mConnectors) {
+            connector.setReconnectPolicy(reconnectPolicy);
+        }
+    }
+
+    /**
+     * Bind and connect to all replicas.
+     * See {@link IpcServiceConnector#bindAndConnectToIpcService(Intent, ServiceConnection, int)}
+     * @param intents intents of the replicas - one per replica, in the order of replicas
+     * @param serviceConnection will be notified about connections and disconnections of all
+     *                          replicas (replicas can be distinguished by their component names)
+     * @param flags will be used in {@link Context#bindService(Intent, ServiceConnection, int)} calls
+     * @return the number of replicas which were bound
+     */
+    public int bindAndConnectToIpcServices(@NonNull Intent[] intents,
+                                           @NonNull ServiceConnection serviceConnection,
+                                           int flags) {
+        if (intents.length != mConnectors.length) {
+            throw new IllegalArgumentException("expected " + mConnectors.length + " intents");
+        }
+
+        int boundReplicas = 0;
+        for (int i = 0; i < mConnectors.length; i++) {
+            if (mConnectors[i].bindAndConnectToIpcService(intents[i], serviceConnection, flags)) {
+                boundReplicas++;
+            }
+        }
+        return boundReplicas;
+    }
+
+    /**
+     * Unbind all replicas
+     */
+    public void unbindIpcServices() {
+        for (IpcServiceConnector<T> connector : mConnectors) {
+            connector.unbindIpcService();
+        }
+    }
+
+    /**
+     * @return true if at least one replica is bound
+     */
+    public boolean isServiceBound() {
+        for (IpcServiceConnector<T> connector : mConnectors) {
+            if (connector.isServiceBound()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of replicas in {@link IpcServiceConnector#STATE_BOUND_CONNECTED}
+     */
+    public int getConnectedReplicasCount() {
+        int connectedReplicas = 0;
+        for (IpcServiceConnector<T> connector : mConnectors) {
+            if (connector.getState() == IpcServiceConnector.STATE_BOUND_CONNECTED) {
+                connectedReplicas++;
+            }
+        }
+        return connectedReplicas;
+    }
+
+    /**
+     * @return the index of the current primary replica (relevant for {@link #BALANCING_FAILOVER})
+     */
+    public int getPrimaryReplica() {
+        return mPrimaryReplica.get();
+    }
+
+    /**
+     * @return the number of times the primary replica was replaced by a standby
+     */
+    public int getFailoversCount() {
+        return mFailovers.get();
+    }
+
+    /**
+     * This method has no side effects: with {@link #BALANCING_FAILOVER} it returns the interface
+     * of the current primary replica even if a standby would serve the next call (see
+     * {@link #updatePrimaryReplica()}); with other policies it doesn't advance the balancing.
+     * @return the interface of the replica which would be selected for the next call (the
+     *         primary replica with {@link #BALANCING_FAILOVER}), or null if it isn't connected
+     */
+    @Nullable
+    public T getService() {
+        if (mBalancingPolicy == BALANCING_FAILOVER) {
+            return mConnectors[mPrimaryReplica.get()].getService();
+        }
+        int replica = selectReplica(-1, false);
+        return replica == -1 ? null : mConnectors[replica].getService();
+    }
+
+    /**
+     * Fail over to the next standby replica if the primary one can't accept calls (relevant for
+     * {@link #BALANCING_FAILOVER}). Calls executed through the group do this by themselves;
+     * clients which use {@link #getService()} directly should call this method when the state or
+     * the health of a replica changes.
+     * @return the index of the primary replica, or -1 if no replica can accept calls
+     */
+    public int updatePrimaryReplica() {
+        if (mBalancingPolicy != BALANCING_FAILOVER) {
+            return -1;
+        }
+        return selectReplica(-1, true);
+    }
+
+    /**
+     * Execute the given call on one of the connected replicas, selected according to the
+     * balancing policy. Replicas whose circuit breakers are open are skipped, and replicas marked
+     * as degraded by their {@link HealthProber}s are used only if no healthy replica is
+     * connected. If the selected replica disconnects, its breaker opens, or it has too many
+     * stranded calls, before the call is dispatched, the call is retried on another replica
+     * (calls which reached a replica are never retried).<br><br>
+     *
+     * See {@link IpcServiceConnector#call(IpcCall, long)}. This method MUST NOT be called from
+     * UI thread.
+     * @param call the call to execute
+     * @param timeout the maximal time (in milliseconds) to wait for call's completion
+     * @return the outcome of the call;
+     *         {@link IpcCallResult#STATUS_NOT_CONNECTED} if no replica could accept the call
+     */
+    @WorkerThread
+    @NonNull
+    public <R> IpcCallResult<R> call(@NonNull IpcCall<T, R> call, long timeout) {
+        IpcCallResult<R> result = null;
+        int previousReplica = -1;
+
+        for (int attempt = 0; attempt < mConnectors.length; attempt++) {
+            int replica = selectReplica(previousReplica, true);
+            if (replica == -1) {
+                break;
+            }
+
+            mOutstandingCalls.incrementAndGet(replica);
+            try {
+                result = mConnectors[replica].call(call, timeout);
+            } finally {
+                mOutstandingCalls.decrementAndGet(replica);
+            }
+
+            int status = result.getStatus();
+            if (status != IpcCallResult.STATUS_NOT_CONNECTED
+                    && status != IpcCallResult.STATUS_REJECTED_CIRCUIT_OPEN
+                    && status != IpcCallResult.STATUS_REJECTED_STRANDED_CALLS) {
+                break;
+            }
+
+            previousReplica = replica;
+        }
+
+        if (result == null) {
+            result = new IpcCallResult<>(IpcCallResult.STATUS_NOT_CONNECTED, null, null, 0);
+        }
+        return result;
+    }
+
+    /**
+     * Block the calling thread until at least one replica is connected.<br><br>
+     *
+     * This method MUST NOT be called from UI thread.
+     * @param deadline the value of {@link System#nanoTime()} at which the calling thread will be
+     *                 unblocked
+     * @return {@link IpcServiceConnector#STATE_BOUND_CONNECTED} if a replica is connected,
+     *         {@link IpcServiceConnector#STATE_UNBOUND} if no replica is bound (or will be
+     *         rebound after a failed binding attempt),
+     *         {@link IpcServiceConnector#WAIT_RESULT_TIMED_OUT} if the deadline passed, or
+     *         {@link IpcServiceConnector#WAIT_RESULT_INTERRUPTED} if the calling thread was
+     *         interrupted (the interrupted status is preserved)
+     */
+    @WorkerThread
+    public int waitForAnyReplicaConnected(long deadline) {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        IpcServiceConnector<T>.StateWaitFuture[] futures =
+                new IpcServiceConnector.StateWaitFuture[mConnectors.length];
+
+        try {
+            while (true) {
+                if (getConnectedReplicasCount() > 0) {
+                    return IpcServiceConnector.STATE_BOUND_CONNECTED;
+                }
+                if (!isAnyReplicaBoundOrRebinding()) {
+                    return IpcServiceConnector.STATE_UNBOUND;
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    return IpcServiceConnector.WAIT_RESULT_INTERRUPTED;
+                }
+                long remainingTime = deadline - System.nanoTime();
+                if (remainingTime <= 0) {
+                    return IpcServiceConnector.WAIT_RESULT_TIMED_OUT;
+                }
+
+                // any transition which might affect the result wakes this thread up
+                final CountDownLatch transitionLatch = new CountDownLatch(1);
+                StateWaitCallback callback = new StateWaitCallback() {
+                    @Override
+                    public void onStateWaitFinished(int result) {
+                        transitionLatch.countDown();
+                    }
+                };
+
+                for (int i = 0; i < mConnectors.length; i++) {
+                    futures[i] = mConnectors[i].waitForAnyStateAsync(CONNECTED_STATES_MASK,
+                            deadline, DIRECT_EXECUTOR, callback);
+                }
+
+                try {
+                    transitionLatch.await(remainingTime, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    // restore interrupted status (was cleared by await())
+                    Thread.currentThread().interrupt();
+                }
+
+                cancelAll(futures);
+            }
+        } finally {
+            cancelAll(futures);
+        }
+    }
+
+    private boolean isAnyReplicaBoundOrRebinding() {
+        for (IpcServiceConnector<T> connector : mConnectors) {
+            if (connector.isServiceBoundOrRebinding()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void cancelAll(IpcServiceConnector<T>.StateWaitFuture[] futures) {
+        for (int i = 0; i < futures.length; i++) {
+            if (futures[i] != null) {
+                futures[i].cancel(false);
+                futures[i] = null;
+            }
+        }
+    }
+
+    /**
+     * @param excludedReplica replica which should not be selected, or -1
+     * @param commit whether the selection should be recorded (advance the balancing, or fail
+     *               over to a standby and count the failover)
+     * @return the index of the selected connected replica, or -1 if no replica can accept calls
+     */
+    private int selectReplica(int excludedReplica, boolean commit) {
+        int replica = selectReplica(excludedReplica, false, commit);
+        return replica != -1 ? replica : selectReplica(excludedReplica, true, commit);
+    }
+
+    /**
+     * @param allowDegraded whether replicas marked as degraded by their health probers can be
+     *                      selected
+     */
+    private int selectReplica(int excludedReplica, boolean allowDegraded, boolean commit) {
+        if (mBalancingPolicy == BALANCING_FAILOVER) {
+            return selectPrimaryReplica(excludedReplica, allowDegraded, commit);
+        }
+
+        int replicasCount = mConnectors.length;
+        int next = commit ? mNextReplica.getAndIncrement() : mNextReplica.get();
+        int start = (next & Integer.MAX_VALUE) % replicasCount;
+
+        int selectedReplica = -1;
+        int selectedOutstandingCalls = Integer.MAX_VALUE;
+
+        for (int i = 0; i < replicasCount; i++) {
+            int replica = (start + i) % replicasCount;
+            if (replica == excludedReplica
+                    || !canAcceptCalls(mConnectors[replica], allowDegraded)) {
+                continue;
+            }
+
+            if (mBalancingPolicy == BALANCING_ROUND_ROBIN) {
+                return replica;
+            }
+
+            int outstandingCalls = mOutstandingCalls.get(replica);
+            if (outstandingCalls < selectedOutstandingCalls) {
+                selectedReplica = replica;
+                selectedOutstandingCalls = outstandingCalls;
+            }
+        }
+
+        return selectedReplica;
+    }
+
+    private int selectPrimaryReplica(int excludedReplica, boolean allowDegraded,
+                                     boolean commit) {
+        int replicasCount = mConnectors.length;
+
+        while (true) {
+            int primaryReplica = mPrimaryReplica.get();
+            if (primaryReplica != excludedReplica
+                    && canAcceptCalls(mConnectors[primaryReplica], allowDegraded)) {
+                return primaryReplica;
+            }
+
+            // fail over to the next standby which can accept calls
+            int standbyReplica = -1;
+            for (int i = 1; i < replicasCount; i++) {
+                int replica = (primaryReplica + i) % replicasCount;
+                if (replica != excludedReplica
+                        && canAcceptCalls(mConnectors[replica], allowDegraded)) {
+                    standbyReplica = replica;
+                    break;
+                }
+            }
+
+            if (standbyReplica == -1 || !commit) {
+                return standbyReplica;
+            }
+
+            if (mPrimaryReplica.compareAndSet(primaryReplica, standbyReplica)) {
+                mFailovers.incrementAndGet();
+                return standbyReplica;
+            }
+            // another thread failed over concurrently - re-evaluate its choice
+        }
+    }
+
+    private boolean canAcceptCalls(IpcServiceConnector<T> connector, boolean allowDegraded) {
+        if (connector.getState() != IpcServiceConnector.STATE_BOUND_CONNECTED) {
+            return false;
+        }
+        if (!allowDegraded && connector.isDegraded()) {
+            return false;
+        }
+        CircuitBreaker circuitBreaker = connector.getCircuitBreaker();
+        return circuitBreaker == null || !circuitBreaker.isOpen();
+    }
+}
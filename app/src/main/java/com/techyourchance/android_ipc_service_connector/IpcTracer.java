@@ -0,0 +1,110 @@
+package com.techyourchance.android_ipc_service_connector;
+
+/**
+ * Tracing surface of {@link IpcServiceConnector} and {@link DateProviderService}.<br><br>
+ *
+ * Events are reported as primitives only, therefore tracing does not allocate at the call site.
+ * It is up to the implementation to decide whether (and when) events are converted to strings.
+ * {@link #NONE} discards all events - since its implementation is empty, calls to it are
+ * eliminated once inlined by the compiler.
+ */
+public interface IpcTracer {
+
+    /**
+     * Connector's state changed. arg0: old state; arg1: new state
+     */
+    int EVENT_STATE_CHANGED = 0;
+
+    /**
+     * A thread started waiting for connector's state. arg0: target states mask; arg1: unused
+     */
+    int EVENT_WAIT_STARTED = 1;
+
+    /**
+     * A waiting thread is about to be blocked. arg0: target states mask; arg1: unused
+     */
+    int EVENT_WAIT_BLOCKED = 2;
+
+    /**
+     * A wait completed. arg0: target states mask; arg1: wait result
+     */
+    int EVENT_WAIT_FINISHED = 3;
+
+    /**
+     * Connector attempted to bind IPC service. arg0: 1 if the service was bound, 0 otherwise;
+     * arg1: unused
+     */
+    int EVENT_BIND = 4;
+
+    /**
+     * Connector unbound IPC service. arg0: 1 if a service was bound, 0 otherwise; arg1: unused
+     */
+    int EVENT_UNBIND = 5;
+
+    /**
+     * IPC service's lifecycle callback was invoked. arg0: one of SERVICE_CALLBACK_* constants;
+     * arg1: unused
+     */
+    int EVENT_SERVICE_LIFECYCLE = 6;
+
+    /**
+     * Connector scheduled a reconnection attempt. arg0: attempt number; arg1: delay (ms)
+     */
+    int EVENT_RECONNECT_SCHEDULED = 7;
+
+    /**
+     * Connector gave up reconnection attempts. arg0: 0 if the maximal number of attempts was
+     * exceeded, 1 if the service is crash-looping; arg1: the number of failed attempts
+     */
+    int EVENT_RECONNECT_GAVE_UP = 8;
+
+    /**
+     * Connector detected the death of service's binder. arg0, arg1: unused
+     */
+    int EVENT_BINDER_DIED = 9;
+
+    /**
+     * System notified the connector about service's disconnection after the death of service's
+     * binder had already been detected. arg0: detection lead time (us); arg1: unused
+     */
+    int EVENT_DEATH_DETECTION_LEAD = 10;
+
+    /**
+     * State of connector's {@link CircuitBreaker} changed. arg0: old state; arg1: new state
+     */
+    int EVENT_CIRCUIT_STATE_CHANGED = 11;
+
+    /**
+     * Connector's {@link HealthProber} marked the connection as degraded or healthy.
+     * arg0: 1 if degraded, 0 if healthy; arg1: the number of consecutive bad probes
+     */
+    int EVENT_HEALTH_CHANGED = 12;
+
+    int SERVICE_CALLBACK_ON_CREATE = 0;
+    int SERVICE_CALLBACK_ON_DESTROY = 1;
+    int SERVICE_CALLBACK_ON_BIND = 2;
+    int SERVICE_CALLBACK_ON_UNBIND = 3;
+    int SERVICE_CALLBACK_ON_REBIND = 4;
+
+    /**
+     * Tracer which discards all events
+     */
+    IpcTracer NONE = new NoOpTracer();
+
+    /**
+     * Report an event. This method is called on the hot path and MUST NOT block.
+     * @param event one of EVENT_* constants
+     */
+    void trace(int event, int arg0, int arg1);
+
+
+    final class NoOpTracer implements IpcTracer {
+
+        private NoOpTracer() {}
+
+        @Override
+        public void trace(int event, int arg0, int arg1) {
+            // no-op
+        }
+    }
+}
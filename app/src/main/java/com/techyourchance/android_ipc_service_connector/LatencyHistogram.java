@@ -0,0 +1,136 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free and allocation-free histogram of latencies. Values are counted in buckets whose upper
+ * bounds are powers of two (in nanoseconds), therefore percentiles obtained from snapshots are
+ * accurate up to a factor of two - which is enough in order to compare distributions between
+ * releases.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS_COUNT = 64;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS_COUNT);
+    private final AtomicLong mCount = new AtomicLong(0);
+    private final AtomicLong mSum = new AtomicLong(0);
+    private final AtomicLong mMax = new AtomicLong(0);
+
+    /**
+     * @param latency the latency to record (in nanoseconds); negative values are recorded as zero
+     */
+    public void record(long latency) {
+        if (latency < 0) {
+            latency = 0;
+        }
+
+        mBuckets.incrementAndGet(getBucketIndex(latency));
+        mCount.incrementAndGet();
+        mSum.addAndGet(latency);
+
+        long max;
+        while (latency > (max = mMax.get())) {
+            if (mMax.compareAndSet(max, latency)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the current values. Recording is not paused while the copy is taken,
+     *         therefore the values of a snapshot might be off by concurrently recorded latencies.
+     */
+    @NonNull
+    public Snapshot getSnapshot() {
+        long[] buckets = new long[BUCKETS_COUNT];
+        for (int i = 0; i < BUCKETS_COUNT; i++) {
+            buckets[i] = mBuckets.get(i);
+        }
+        return new Snapshot(buckets, mCount.get(), mSum.get(), mMax.get());
+    }
+
+    private static int getBucketIndex(long latency) {
+        // bucket i holds values in range [2^(i-1), 2^i)
+        return Math.min(BUCKETS_COUNT - 1, 64 - Long.numberOfLeadingZeros(latency));
+    }
+
+
+    /**
+     * Immutable copy of histogram's values
+     */
+    public static final class Snapshot {
+
+        private final long[] mBuckets;
+        private final long mCount;
+        private final long mSum;
+        private final long mMax;
+
+        private Snapshot(long[] buckets, long count, long sum, long max) {
+            mBuckets = buckets;
+            mCount = count;
+            mSum = sum;
+            mMax = max;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        /**
+         * @return mean latency (in nanoseconds), or 0 if nothing was recorded
+         */
+        public long getMean() {
+            return mCount == 0 ? 0 : mSum / mCount;
+        }
+
+        /**
+         * @return maximal latency (in nanoseconds)
+         */
+        public long getMax() {
+            return mMax;
+        }
+
+        /**
+         * @param percentile value in range (0, 100]
+         * @return upper bound of the bucket (in nanoseconds) which holds the given percentile of
+         *         the recorded latencies, or 0 if nothing was recorded
+         */
+        public long getPercentile(double percentile) {
+            if (percentile <= 0 || percentile > 100) {
+                throw new IllegalArgumentException("invalid percentile: " + percentile);
+            }
+
+            long total = 0;
+            for (long bucket : mBuckets) {
+                total += bucket;
+            }
+            if (total == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long accumulated = 0;
+            for (int i = 0; i < mBuckets.length; i++) {
+                accumulated += mBuckets[i];
+                if (accumulated >= rank) {
+                    // the actual values never exceed the maximum
+                    return Math.min(mMax, i == 0 ? 0 : (1L << i) - 1);
+                }
+            }
+            return mMax;
+        }
+
+        @Override
+        public String toString() {
+            return "count: " + mCount +
+                    "; mean: " + getMean() +
+                    "; p50: " + getPercentile(50) +
+                    "; p99: " + getPercentile(99) +
+                    "; max: " + mMax;
+        }
+    }
+}
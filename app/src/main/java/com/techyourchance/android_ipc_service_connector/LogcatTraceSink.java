@@ -0,0 +1,21 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+/**
+ * {@link TraceSink} which writes trace messages to logcat
+ */
+public class LogcatTraceSink implements TraceSink {
+
+    private final String mTag;
+
+    public LogcatTraceSink(@NonNull String tag) {
+        mTag = tag;
+    }
+
+    @Override
+    public void onTraceMessage(@NonNull String message) {
+        Log.d(mTag, message);
+    }
+}
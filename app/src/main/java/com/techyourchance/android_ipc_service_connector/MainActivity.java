@@ -5,10 +5,15 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.Bundle;
+import android.os.Binder;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.WorkerThread;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
@@ -17,20 +22,38 @@ import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = "MainActivity";
 
     private static final int CONNECTION_TIMEOUT = 5000; // ms
 
-    private static final long DATE_REFRESH_INTERVAL = 100; // ms
+    private static final String CONNECTOR_NAME = "DateProviderConnector";
+
+    private static final int ALL_STATES_MASK = IpcServiceConnector.statesMask(
+            IpcServiceConnector.STATE_NONE,
+            IpcServiceConnector.STATE_BOUND_WAITING_FOR_CONNECTION,
+            IpcServiceConnector.STATE_BOUND_CONNECTED,
+            IpcServiceConnector.STATE_BOUND_DISCONNECTED,
+            IpcServiceConnector.STATE_UNBOUND,
+            IpcServiceConnector.STATE_BINDING_FAILED);
+
+    private static final Class<?>[] DATE_PROVIDER_REPLICAS = new Class<?>[] {
+            DateProviderService.class,
+            DateProviderService.Replica1.class,
+            DateProviderService.Replica2.class
+    };
 
     private final ServiceConnection mServiceConnection = new ServiceConnection() {
 
         @Override
         public void onServiceConnected(ComponentName name, IBinder service) {
             Log.d(TAG, "onServiceConnected()");
-            mDateProvider = IDateProvider.Stub.asInterface(service);
             mBtnCrashService.setEnabled(true);
         }
 
@@ -38,12 +61,60 @@ public class MainActivity extends AppCompatActivity {
         public void onServiceDisconnected(ComponentName name) {
             Log.d(TAG, "onServiceDisconnected()");
             mBtnCrashService.setEnabled(false);
-            mDateProvider = null;
         }
     };
 
-    private IpcServiceConnector mIpcServiceConnector;
-    private IDateProvider mDateProvider;
+    /*
+     The subscription follows the replica which serves the calls. It changes not only when
+     ServiceConnection callbacks are invoked, but also when a connector detects the death of its
+     replica on a binder thread (before onServiceDisconnected() is called), and when a replica is
+     marked as degraded or healthy by its HealthProber. Therefore, the subscription is re-evaluated
+     upon these events, rather than in ServiceConnection callbacks.
+     */
+    private final HealthCallback mHealthCallback = new HealthCallback() {
+        @Override
+        public void onHealthChanged(boolean degraded) {
+            mDateMonitor.updateSubscription();
+        }
+    };
+
+    private final BinderConverter<IDateProvider> mDateProviderConverter =
+            new BinderConverter<IDateProvider>() {
+                @Override
+                public IDateProvider asInterface(IBinder binder) {
+                    return IDateProvider.Stub.asInterface(binder);
+                }
+            };
+
+    private static final IpcCall<IDateProvider, Void> PING_CALL =
+            new IpcCall<IDateProvider, Void>() {
+                @Override
+                public Void call(@NonNull IDateProvider service) throws RemoteException {
+                    service.ping();
+                    return null;
+                }
+            };
+
+    private IpcServiceConnectorGroup<IDateProvider> mIpcServiceConnectorGroup;
+
+    /*
+     The service pushes the time as a primitive, and it is formatted here - this keeps binder
+     transactions small and the string work off service's binder threads
+     */
+    private final CachedDateFormatter mDateFormatter = new CachedDateFormatter();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final Executor mMainExecutor = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            mMainHandler.post(command);
+        }
+    };
+
+    // blocking IPC calls must not be made on UI thread
+    private HandlerThread mBackgroundThread;
+    private Handler mBackgroundHandler;
 
     private final DateMonitor mDateMonitor = new DateMonitor();
 
@@ -55,7 +126,32 @@ public class MainActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        mIpcServiceConnector = new IpcServiceConnector(this, "DateProviderConnector");
+        mBackgroundThread = new HandlerThread("MainActivityBackground");
+        mBackgroundThread.start();
+        mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+
+        /*
+         The primary replica of the service pushes the time, while the other replicas (which run
+         in different processes) are kept connected as hot standbys - when the primary replica
+         crashes, the date monitor subscribes to a standby without waiting for the restart.
+         */
+        mIpcServiceConnectorGroup = new IpcServiceConnectorGroup<>(this, CONNECTOR_NAME,
+                mDateProviderConverter,
+                DATE_PROVIDER_REPLICAS.length,
+                IpcServiceConnectorGroup.BALANCING_FAILOVER,
+                BuildConfig.DEBUG ?
+                        new TraceBuffer(CONNECTOR_NAME, 64, new LogcatTraceSink(CONNECTOR_NAME)) :
+                        IpcTracer.NONE);
+
+        // connectors will rebind to replicas (with backoff) if connection can't be established
+        mIpcServiceConnectorGroup.setReconnectPolicy(ReconnectPolicy.createDefault());
+
+        // slowly responding replicas are marked degraded, and the group fails over to healthy ones
+        for (int i = 0; i < mIpcServiceConnectorGroup.getReplicasCount(); i++) {
+            HealthProber<IDateProvider> healthProber = HealthProber.createDefault(PING_CALL);
+            healthProber.setCallback(mMainExecutor, mHealthCallback);
+            mIpcServiceConnectorGroup.getConnector(i).setHealthProber(healthProber);
+        }
 
         mTxtDate = (TextView) findViewById(R.id.txt_date);
         mBtnCrashService = (Button) findViewById(R.id.btn_crash_service);
@@ -63,8 +159,12 @@ public class MainActivity extends AppCompatActivity {
         mBtnCrashService.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
+                IDateProvider dateProvider = mIpcServiceConnectorGroup.getService();
+                if (dateProvider == null) {
+                    return;
+                }
                 try {
-                    mDateProvider.crashService();
+                    dateProvider.crashService();
                 } catch (RemoteException e) {
                     e.printStackTrace();
                 }
@@ -72,6 +172,12 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mBackgroundThread.quit();
+    }
+
     @Override
     protected void onStart() {
         super.onStart();
@@ -86,13 +192,20 @@ public class MainActivity extends AppCompatActivity {
     protected void onStop() {
         super.onStop();
         Log.d(TAG, "onStop(); unbinding IPC service");
-        mIpcServiceConnector.unbindIpcService();
+        mIpcServiceConnectorGroup.unbindIpcServices();
+        Log.d(TAG, "failovers: " + mIpcServiceConnectorGroup.getFailoversCount());
+        for (int i = 0; i < mIpcServiceConnectorGroup.getReplicasCount(); i++) {
+            Log.d(TAG, "replica " + i + " connector metrics: " +
+                    mIpcServiceConnectorGroup.getConnector(i).getMetricsSnapshot());
+            Log.d(TAG, "replica " + i + " ping round-trip time: " +
+                    mIpcServiceConnectorGroup.getConnector(i).getHealthProber().getRoundTripTime());
+        }
     }
 
     @Override
     protected void onResume() {
         super.onResume();
-        if (mIpcServiceConnector.isServiceBound()) {
+        if (mIpcServiceConnectorGroup.isServiceBound()) {
             Log.d(TAG, "onResume(); starting date monitor");
             mDateMonitor.start();
         } else {
@@ -108,160 +221,279 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private boolean bindDateProviderService() {
-        return mIpcServiceConnector.bindAndConnectToIpcService(
-                new Intent(this, DateProviderService.class),
+        Intent[] intents = new Intent[DATE_PROVIDER_REPLICAS.length];
+        for (int i = 0; i < DATE_PROVIDER_REPLICAS.length; i++) {
+            intents[i] = new Intent(this, DATE_PROVIDER_REPLICAS[i]);
+        }
+        return mIpcServiceConnectorGroup.bindAndConnectToIpcServices(
+                intents,
                 mServiceConnection,
-                Context.BIND_AUTO_CREATE);
+                Context.BIND_AUTO_CREATE) > 0;
     }
 
 
+    /**
+     * Subscribes to time changes pushed by the replica which currently serves the calls, and
+     * displays them. Once the time page of the replica is mapped (off UI thread), the pushes are
+     * replaced with local reads of the page at second boundaries. The subscription follows
+     * failovers between replicas. All methods must be called on UI thread.
+     */
     private class DateMonitor {
 
+        /*
+         The page is read shortly after the boundary in order to not race with replica's writer
+         (the page is written by a delayed task which might fire a bit late)
+         */
+        private static final long TIME_PAGE_READ_DELAY = 50; // ms
+
+        // the watches of connectors' states are re-armed when they time out
+        private static final long STATE_WATCH_TIMEOUT = 60000; // ms
 
-        private final Runnable mConnectionInProgressNotification = new Runnable() {
+        private final IDateListener.Stub mDateListener = new IDateListener.Stub() {
             @Override
-            public void run() {
-                mTxtDate.setText("connecting to IPC service...");
+            public void onTimeChanged(long timeMillis) {
+                // called on a binder thread
+                mLatestTime = timeMillis;
+                mMainHandler.post(mDateNotification);
             }
         };
 
         private final Runnable mDateNotification = new Runnable() {
             @Override
             public void run() {
-                mTxtDate.setText(mCurrentDate);
+                // notifications might still arrive after unsubscription, or after the time page
+                // took over
+                if (mSubscribedDateProvider == null || mTimePageReader != null) {
+                    return;
+                }
+                mTxtDate.setText(mDateFormatter.format(mLatestTime));
             }
         };
 
-        private String mCurrentDate = "-";
-        private boolean mConnectionFailure = false;
-
-        private final Handler mMainHandler = new Handler(Looper.getMainLooper());
-
-        private Thread mWorkerThread;
-        private Thread mOldWorkerThread;
-
-        public void start() {
-
-            // make sure we stop the worker thread, but keep reference to it
-            if (mWorkerThread != null) {
-                mOldWorkerThread = mWorkerThread;
-                stop();
+        private final Runnable mReadTimePage = new Runnable() {
+            @Override
+            public void run() {
+                if (mTimePageReader == null) {
+                    return;
+                }
+                if (mTimePageReader.read(mTimePageValue)) {
+                    mTxtDate.setText(mTimePageValue.getText(), 0, mTimePageValue.getTextLength());
+                }
+                long now = System.currentTimeMillis();
+                mMainHandler.postDelayed(this, 1000 - now % 1000 + TIME_PAGE_READ_DELAY);
             }
+        };
 
-            mWorkerThread = new Thread(new Runnable() {
-                @Override
-                public void run() {
+        private final Runnable mConnectionTimeoutNotification = new Runnable() {
+            @Override
+            public void run() {
+                /*
+                 Connection error handling here. Rebinding is handled by the connectors according
+                 to their ReconnectPolicy, but a real error handling could also employ some
+                 extrapolation of cached data, etc.
+                 */
+                Log.e(TAG, "no replica connected within " + CONNECTION_TIMEOUT + "ms" +
+                        " - the connectors will reconnect to the replicas");
+                Toast.makeText(
+                        MainActivity.this,
+                        "connection attempt failed - reconnecting",
+                        Toast.LENGTH_LONG)
+                        .show();
+            }
+        };
 
-                    // make this thread wait until the old thread dies
-                    if (mOldWorkerThread != null) {
-                        try {
-                            mOldWorkerThread.join();
-                        } catch (InterruptedException e) {
-                            // set the interrupted status back (it was cleared in join())
-                            Thread.currentThread().interrupt();
-                        }
-                        mOldWorkerThread = null;
-                    }
+        private volatile long mLatestTime;
 
-                    mConnectionFailure = false;
-                    mCurrentDate = "-";
+        private boolean mStarted = false;
+        private IDateProvider mSubscribedDateProvider;
 
-                    // loop until interrupted
-                    while (!Thread.currentThread().isInterrupted()) {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private final IpcServiceConnector<IDateProvider>.StateWaitFuture[] mStateWatches =
+                new IpcServiceConnector.StateWaitFuture[DATE_PROVIDER_REPLICAS.length];
+        // incremented when the watches are cancelled, such that callbacks which were already
+        // posted don't re-arm them
+        private int mStateWatchesGeneration = 0;
 
-                        updateDate();
+        /*
+         Identifies this client as the holder of replica's time page. A new token is used for each
+         subscription, such that releasing a stale page can't release the current one.
+         */
+        private IBinder mTimePageToken;
+        private TimePageReader mTimePageReader;
+        private final TimePageReader.Value mTimePageValue = new TimePageReader.Value();
 
-                        try {
-                            Thread.sleep(DATE_REFRESH_INTERVAL);
-                        } catch (InterruptedException e) {
-                            // set the interrupted status back (it was cleared in sleep())
-                            Thread.currentThread().interrupt();
-                        }
-                    }
-                }
-            });
-            mWorkerThread.start();
+        public void start() {
+            mStarted = true;
+            for (int i = 0; i < mStateWatches.length; i++) {
+                watchState(i);
+            }
+            updateSubscription();
         }
 
         public void stop() {
-            if (mWorkerThread != null) {
-                mWorkerThread.interrupt();
-                mWorkerThread = null;
+            mStarted = false;
+            mStateWatchesGeneration++;
+            for (int i = 0; i < mStateWatches.length; i++) {
+                if (mStateWatches[i] != null) {
+                    mStateWatches[i].cancel(false);
+                    mStateWatches[i] = null;
+                }
             }
+            updateSubscription();
         }
 
-        @WorkerThread
-        private void updateDate() {
-
-            /*
-             We don't want the date displayed being stuck if we ever need to wait for connection,
-             therefore we show informative notification.
-             The notification should be cancelled if the service is connected
-             */
-            if (!mConnectionFailure) {
-                mMainHandler.postDelayed(mConnectionInProgressNotification, 100);
+        /**
+         * Wait (without blocking) for the next state change of the given replica, and update the
+         * subscription when it happens. The wait is re-armed until the monitor is stopped.
+         */
+        private void watchState(final int replica) {
+            IpcServiceConnector<IDateProvider> connector =
+                    mIpcServiceConnectorGroup.getConnector(replica);
+
+            int otherStatesMask = ALL_STATES_MASK
+                    & ~IpcServiceConnector.statesMask(connector.getState());
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STATE_WATCH_TIMEOUT);
+            final int generation = mStateWatchesGeneration;
+
+            mStateWatches[replica] = connector.waitForAnyStateAsync(otherStatesMask, deadline,
+                    mMainExecutor, new StateWaitCallback() {
+                        @Override
+                        public void onStateWaitFinished(int result) {
+                            if (generation != mStateWatchesGeneration) {
+                                return; // the watches were cancelled after this one completed
+                            }
+                            watchState(replica);
+                            updateSubscription();
+                        }
+                    });
+        }
+
+        /**
+         * Subscribe to the replica which currently serves the calls (if it changed). Called
+         * whenever the state of a replica changes, and whenever a replica is marked as degraded
+         * or healthy.
+         */
+        public void updateSubscription() {
+            IDateProvider dateProvider = null;
+            if (mStarted) {
+                // the group fails over by itself only upon calls
+                mIpcServiceConnectorGroup.updatePrimaryReplica();
+                dateProvider = mIpcServiceConnectorGroup.getService();
+            }
+            if (dateProvider == mSubscribedDateProvider) {
+                return;
             }
 
-            // this call can block the worker thread for up to CONNECTION_TIMEOUT milliseconds
-            if (mIpcServiceConnector.waitForState(IpcServiceConnector.STATE_BOUND_CONNECTED,
-                    CONNECTION_TIMEOUT)) { // IPC service connected
+            // all these calls are oneway - they don't block UI thread
+            if (mSubscribedDateProvider != null) {
+                try {
+                    mSubscribedDateProvider.unregisterDateListener(mDateListener);
+                    mSubscribedDateProvider.releaseTimePage(mTimePageToken);
+                } catch (RemoteException e) {
+                    // the replica died along with the registrations
+                }
+            }
 
-                mConnectionFailure = false;
-                mMainHandler.removeCallbacks(mConnectionInProgressNotification);
+            mSubscribedDateProvider = dateProvider;
+            mTimePageToken = null;
+            mTimePageReader = null;
+            mMainHandler.removeCallbacks(mReadTimePage);
+            mMainHandler.removeCallbacks(mConnectionTimeoutNotification);
 
+            if (dateProvider != null) {
+                // pushed notifications are displayed until the time page is mapped
                 try {
-                    mCurrentDate = mDateProvider.getDate();
+                    dateProvider.registerDateListener(mDateListener);
                 } catch (RemoteException e) {
-                    // this exception can still be thrown (e.g. service crashed, but the system hasn't
-                    // notified us yet)
-                    mCurrentDate = "-";
-                    e.printStackTrace();
-                } catch (NullPointerException e) {
-                    /*
-                     Since mDateProvider is assigned/cleared on UI thread, but is being used on
-                     worker thread, there is a chance of race condition that will result in NPE.
-                     We could either add synchronization, or catch NPE - I chose the latter in
-                     order to simplify the (already complex) example
-                     */
-                    mCurrentDate = "-";
-                    e.printStackTrace();
+                    // the replica died - the subscription will be updated upon disconnection
+                    Log.e(TAG, "registerDateListener() failed");
+                    return;
                 }
-            } else { // could not connect to IPC service
-                Log.e(TAG, "connection attempt timed out - attempting to rebind to the service");
-                notifyUserConnectionAttemptFailed();
+                mTimePageToken = new Binder();
+                fetchTimePage(dateProvider, mTimePageToken);
+            } else if (mStarted) {
+                mTxtDate.setText("connecting to IPC service...");
+                mMainHandler.postDelayed(mConnectionTimeoutNotification, CONNECTION_TIMEOUT);
+            }
+        }
 
-                /*
-                 Connection error handling here. I just attempt to rebind to the service, but a real
-                 error handling could also employ some extrapolation of cached data, etc.
-                 If this is a fatal error from your application's point ov view, then unbind from
-                 the service and stop the worker thread.
-                  */
-
-                mConnectionFailure = true;
-
-                mIpcServiceConnector.unbindIpcService();
-                if (!bindDateProviderService()) {
-                    Log.e(TAG, "rebind attempt failed - stopping DateMonitor completely");
-                    DateMonitor.this.stop();
+        /**
+         * Map the time page of the given replica on background thread, and deliver the reader to
+         * {@link #onTimePageFetched(IDateProvider, IBinder, TimePageReader)} on UI thread
+         */
+        private void fetchTimePage(final IDateProvider dateProvider, final IBinder token) {
+            mBackgroundHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    final TimePageReader timePageReader = mapTimePage(dateProvider, token);
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onTimePageFetched(dateProvider, token, timePageReader);
+                        }
+                    });
                 }
+            });
+        }
 
+        private void onTimePageFetched(IDateProvider dateProvider, IBinder token,
+                                       @Nullable TimePageReader timePageReader) {
+            if (token != mTimePageToken) {
+                // the subscription changed while the page was fetched
+                try {
+                    dateProvider.releaseTimePage(token);
+                } catch (RemoteException e) {
+                    // the replica died along with the page
+                }
                 return;
             }
 
-            mMainHandler.post(mDateNotification);
+            if (timePageReader == null) {
+                return; // keep displaying pushed notifications
+            }
+
+            // the page replaces pushed notifications
+            try {
+                dateProvider.unregisterDateListener(mDateListener);
+            } catch (RemoteException e) {
+                // the replica died - the subscription will be updated upon disconnection
+            }
+            mTimePageReader = timePageReader;
+            mReadTimePage.run();
         }
 
-        private void notifyUserConnectionAttemptFailed() {
-            MainActivity.this.runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    Toast.makeText(
-                            MainActivity.this,
-                            "connection attempt timed out - rebinding",
-                            Toast.LENGTH_LONG)
-                            .show();
+        /**
+         * Map the time page of the given replica. The page is mapped once per subscription, and
+         * is then read without IPC. Blocks on IPC - must not be called on UI thread.
+         * @return reader of the page, or null if the page isn't available
+         */
+        @WorkerThread
+        @Nullable
+        private TimePageReader mapTimePage(IDateProvider dateProvider, IBinder token) {
+            ParcelFileDescriptor timePage;
+            try {
+                timePage = dateProvider.getTimePage(token);
+            } catch (RemoteException e) {
+                return null; // the replica died - the subscription will be updated
+            }
+            if (timePage == null) {
+                return null;
+            }
+
+            FileInputStream inputStream = new ParcelFileDescriptor.AutoCloseInputStream(timePage);
+            try {
+                // the mapping remains valid after the descriptor is closed
+                return TimePageReader.map(inputStream.getChannel());
+            } catch (IOException e) {
+                Log.e(TAG, "couldn't map the time page", e);
+                return null;
+            } finally {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    // nothing to do
                 }
-            });
+            }
         }
     }
 }
@@ -0,0 +1,63 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import android.support.annotation.NonNull;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formatter of an arbitrary {@link SimpleDateFormat} pattern. The pattern is parsed once upon
+ * construction and then reused for all formatted values.<br><br>
+ *
+ * SimpleDateFormat is not thread-safe, therefore formatting is serialized on the instance. The
+ * critical section is short, and instances are shared through {@link DateFormatterCache}.
+ */
+public final class PatternDateFormatter {
+
+    private final String mPattern;
+    private final Locale mLocale;
+    private final TimeZone mTimeZone;
+
+    // guarded by this
+    private final SimpleDateFormat mDateFormat;
+    private final Date mDate = new Date();
+
+    /**
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    public PatternDateFormatter(@NonNull String pattern, @NonNull Locale locale,
+                                @NonNull TimeZone timeZone) {
+        mPattern = pattern;
+        mLocale = locale;
+        mTimeZone = (TimeZone) timeZone.clone();
+
+        mDateFormat = new SimpleDateFormat(pattern, locale);
+        mDateFormat.setTimeZone(mTimeZone);
+    }
+
+    @NonNull
+    public String getPattern() {
+        return mPattern;
+    }
+
+    @NonNull
+    public Locale getLocale() {
+        return mLocale;
+    }
+
+    @NonNull
+    public TimeZone getTimeZone() {
+        return (TimeZone) mTimeZone.clone();
+    }
+
+    /**
+     * @param millis the time to format (milliseconds since epoch)
+     */
+    @NonNull
+    public synchronized String format(long millis) {
+        mDate.setTime(millis);
+        return mDateFormat.format(mDate);
+    }
+}
@@ -0,0 +1,93 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import java.util.Random;
+
+/**
+ * Immutable configuration of automatic reconnection performed by {@link IpcServiceConnector}.
+ * Delays between consecutive reconnection attempts grow exponentially (doubling each time) up
+ * to the specified maximum, and are randomized by the specified jitter factor in order to avoid
+ * synchronized reconnection storms.
+ */
+public final class ReconnectPolicy {
+
+    private final long mConnectionTimeout;
+    private final long mInitialBackoff;
+    private final long mMaxBackoff;
+    private final double mJitterFactor;
+    private final int mMaxAttempts;
+    private final int mCrashLoopDisconnects;
+    private final long mCrashLoopWindow;
+
+    /**
+     * @param connectionTimeout the period of time (in milliseconds) the connector waits for
+     *                          {@link IpcServiceConnector#STATE_BOUND_CONNECTED} after binding
+     *                          or disconnection before the attempt is considered failed
+     * @param initialBackoff delay (in milliseconds) before the first reconnection attempt
+     * @param maxBackoff the upper bound (in milliseconds) of the delay between attempts
+     * @param jitterFactor the fraction [0, 1] of each delay which is randomized
+     * @param maxAttempts the number of consecutive failed attempts after which the connector
+     *                    gives up
+     * @param crashLoopDisconnects if more disconnections than this number occur within
+     *                             crashLoopWindow, the service is considered crash-looping and
+     *                             the connector gives up
+     * @param crashLoopWindow see crashLoopDisconnects (in milliseconds)
+     */
+    public ReconnectPolicy(long connectionTimeout, long initialBackoff, long maxBackoff,
+                           double jitterFactor, int maxAttempts,
+                           int crashLoopDisconnects, long crashLoopWindow) {
+        if (connectionTimeout <= 0 || initialBackoff <= 0 || maxBackoff < initialBackoff) {
+            throw new IllegalArgumentException("invalid timeouts");
+        }
+        if (jitterFactor < 0 || jitterFactor > 1) {
+            throw new IllegalArgumentException("invalid jitter factor: " + jitterFactor);
+        }
+        if (maxAttempts <= 0 || crashLoopDisconnects <= 0 || crashLoopWindow <= 0) {
+            throw new IllegalArgumentException("invalid limits");
+        }
+
+        mConnectionTimeout = connectionTimeout;
+        mInitialBackoff = initialBackoff;
+        mMaxBackoff = maxBackoff;
+        mJitterFactor = jitterFactor;
+        mMaxAttempts = maxAttempts;
+        mCrashLoopDisconnects = crashLoopDisconnects;
+        mCrashLoopWindow = crashLoopWindow;
+    }
+
+    /**
+     * @return policy with reasonable defaults: 5s connection timeout, backoff from 500ms up to
+     *         30s with 50% jitter, 10 attempts, and crash-loop detection at 5 disconnections
+     *         per minute
+     */
+    public static ReconnectPolicy createDefault() {
+        return new ReconnectPolicy(5000, 500, 30000, 0.5, 10, 5, 60000);
+    }
+
+    public long getConnectionTimeout() {
+        return mConnectionTimeout;
+    }
+
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    public int getCrashLoopDisconnects() {
+        return mCrashLoopDisconnects;
+    }
+
+    public long getCrashLoopWindow() {
+        return mCrashLoopWindow;
+    }
+
+    /**
+     * @param attempt zero-based index of the reconnection attempt
+     * @param random source of jitter
+     * @return delay (in milliseconds) before the given attempt
+     */
+    public long getBackoff(int attempt, Random random) {
+        // avoid overflow of the shift - the maximal backoff is reached long before
+        long backoff = attempt >= 30 ? mMaxBackoff : Math.min(mMaxBackoff, mInitialBackoff << attempt);
+        long jitter = (long) (backoff * mJitterFactor * random.nextDouble());
+        return backoff - jitter;
+    }
+}
@@ -0,0 +1,217 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import android.support.annotation.NonNull;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives automatic reconnection of {@link IpcServiceConnector} according to
+ * {@link ReconnectPolicy}. All delays are handled by the shared {@link ConnectorScheduler},
+ * therefore no thread is blocked while the connector waits for the next attempt. Rebinding and
+ * unbinding block on IPC with the system, therefore they are handed over to
+ * {@link BindingExecutor}.<br><br>
+ *
+ * Invocations of this class are rare (state transitions and timers), therefore its state is
+ * simply guarded by this object's monitor. The monitor is never held while calling into the
+ * connector.
+ */
+class ReconnectScheduler {
+
+    static final int GIVE_UP_REASON_MAX_ATTEMPTS = 0;
+    static final int GIVE_UP_REASON_CRASH_LOOP = 1;
+
+    private final IpcServiceConnector<?> mConnector;
+    private final ReconnectPolicy mPolicy;
+    private final IpcTracer mTracer;
+
+    private final Random mRandom = new Random();
+
+    /**
+     * Timestamps (in milliseconds) of the recent disconnections, used as a ring
+     */
+    private final long[] mDisconnectTimestamps;
+    private int mDisconnectsCount = 0;
+
+    private boolean mActive = false;
+    private int mFailedAttempts = 0;
+
+    /**
+     * Incremented whenever previously scheduled tasks become obsolete. Atomic, because the
+     * connector reads and increments it while holding its own lock (see
+     * {@link #isCurrent(int)}), without this object's monitor.
+     */
+    private final AtomicInteger mGeneration = new AtomicInteger(0);
+
+    private ScheduledFuture<?> mPendingTask;
+
+    ReconnectScheduler(@NonNull IpcServiceConnector<?> connector, @NonNull ReconnectPolicy policy,
+                       @NonNull IpcTracer tracer) {
+        mConnector = connector;
+        mPolicy = policy;
+        mTracer = tracer;
+        mDisconnectTimestamps = new long[policy.getCrashLoopDisconnects()];
+    }
+
+    /**
+     * Should be called after explicit binding attempt
+     */
+    synchronized void onBindRequested(boolean isServiceBound) {
+        mActive = true;
+        mFailedAttempts = 0;
+        mDisconnectsCount = 0;
+
+        if (isServiceBound) {
+            scheduleConnectionWatchdog();
+        } else {
+            onAttemptFailed();
+        }
+    }
+
+    /**
+     * Should be called after explicit unbinding - disables reconnection until the next
+     * explicit binding attempt
+     */
+    synchronized void stop() {
+        mActive = false;
+        mGeneration.incrementAndGet();
+        cancelPendingTask();
+    }
+
+    /**
+     * Called by the connector while holding its lock, right before it rebinds or unbinds on
+     * behalf of this scheduler. Doesn't lock.
+     * @return true if the task of the given generation is still relevant
+     */
+    boolean isCurrent(int generation) {
+        return generation == mGeneration.get();
+    }
+
+    /**
+     * Called by the connector while holding its lock upon explicit binding, such that tasks
+     * which were already handed over (e.g. unbinding after giving up) can't affect the new
+     * binding. Doesn't lock.
+     */
+    void invalidatePendingTasks() {
+        mGeneration.incrementAndGet();
+    }
+
+    synchronized void onConnected() {
+        if (!mActive) {
+            return;
+        }
+        mFailedAttempts = 0;
+        cancelPendingTask();
+    }
+
+    synchronized void onDisconnected() {
+        if (!mActive) {
+            return;
+        }
+
+        long now = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        int slot = mDisconnectsCount % mDisconnectTimestamps.length;
+        // the slot holds the timestamp of N-th previous disconnection (if there were N)
+        long nthPreviousDisconnect = mDisconnectTimestamps[slot];
+        mDisconnectTimestamps[slot] = now;
+        mDisconnectsCount++;
+
+        if (mDisconnectsCount > mDisconnectTimestamps.length
+                && now - nthPreviousDisconnect <= mPolicy.getCrashLoopWindow()) {
+            giveUp(GIVE_UP_REASON_CRASH_LOOP);
+            return;
+        }
+
+        // the system will usually restart the service and reconnect on its own
+        scheduleConnectionWatchdog();
+    }
+
+    private void scheduleConnectionWatchdog() {
+        final int generation = mGeneration.incrementAndGet();
+        cancelPendingTask();
+        mPendingTask = ConnectorScheduler.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ReconnectScheduler.this) {
+                    if (generation != mGeneration.get() || !mActive) {
+                        return;
+                    }
+                    if (mConnector.getState() != IpcServiceConnector.STATE_BOUND_CONNECTED) {
+                        onAttemptFailed();
+                    }
+                }
+            }
+        }, mPolicy.getConnectionTimeout(), TimeUnit.MILLISECONDS);
+    }
+
+    private void onAttemptFailed() {
+        if (mFailedAttempts >= mPolicy.getMaxAttempts()) {
+            giveUp(GIVE_UP_REASON_MAX_ATTEMPTS);
+            return;
+        }
+
+        long backoff = mPolicy.getBackoff(mFailedAttempts, mRandom);
+        mFailedAttempts++;
+
+        mTracer.trace(IpcTracer.EVENT_RECONNECT_SCHEDULED, mFailedAttempts, (int) backoff);
+
+        final int generation = mGeneration.incrementAndGet();
+        cancelPendingTask();
+        // the timer thread only hands the attempt over - rebinding blocks
+        mPendingTask = ConnectorScheduler.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                BindingExecutor.get().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        rebind(generation);
+                    }
+                });
+            }
+        }, backoff, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Executed on {@link BindingExecutor}
+     */
+    private void rebind(int generation) {
+        if (!isCurrent(generation)) {
+            return;
+        }
+
+        boolean isServiceBound = mConnector.rebind(this, generation);
+
+        synchronized (this) {
+            if (generation != mGeneration.get() || !mActive) {
+                return;
+            }
+            if (isServiceBound) {
+                scheduleConnectionWatchdog();
+            } else {
+                onAttemptFailed();
+            }
+        }
+    }
+
+    private void giveUp(int reason) {
+        mTracer.trace(IpcTracer.EVENT_RECONNECT_GAVE_UP, reason, mFailedAttempts);
+        mActive = false;
+        final int generation = mGeneration.incrementAndGet();
+        cancelPendingTask();
+        BindingExecutor.get().execute(new Runnable() {
+            @Override
+            public void run() {
+                mConnector.unbindAfterReconnectGaveUp(ReconnectScheduler.this, generation);
+            }
+        });
+    }
+
+    private void cancelPendingTask() {
+        if (mPendingTask != null) {
+            mPendingTask.cancel(false);
+            mPendingTask = null;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.techyourchance.android_ipc_service_connector;
+
+/**
+ * Callback which is notified when an asynchronous wait initiated by
+ * {@link IpcServiceConnector#waitForAnyStateAsync(int, long, java.util.concurrent.Executor, StateWaitCallback)}
+ * completes.
+ */
+public interface StateWaitCallback {
+
+    /**
+     * @param result the state of {@link IpcServiceConnector} that released the wait (either one
+     *               of the target states, or a terminal state which made them unreachable), or
+     *               {@link IpcServiceConnector#WAIT_RESULT_TIMED_OUT} if the wait timed out
+     */
+    void onStateWaitFinished(int result);
+}
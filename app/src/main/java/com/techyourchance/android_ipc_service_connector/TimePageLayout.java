@@ -0,0 +1,35 @@
+package com.techyourchance.android_ipc_service_connector;
+
+/**
+ * Layout of the shared-memory time page published by {@link DateProviderService}. The page is
+ * written by {@link TimePageWriter} and read by {@link TimePageReader}. All values are stored in
+ * big-endian order.
+ */
+final class TimePageLayout {
+
+    /**
+     * int; seqlock sequence - odd while the page is being written, 0 before the first write
+     */
+    static final int OFFSET_SEQUENCE = 0;
+
+    /**
+     * long; the published time in milliseconds since epoch
+     */
+    static final int OFFSET_TIME_MILLIS = 8;
+
+    /**
+     * int; the number of bytes of the formatted time
+     */
+    static final int OFFSET_TEXT_LENGTH = 16;
+
+    /**
+     * ASCII bytes of the formatted time
+     */
+    static final int OFFSET_TEXT = 20;
+
+    static final int MAX_TEXT_LENGTH = 64;
+
+    static final int PAGE_SIZE = OFFSET_TEXT + MAX_TEXT_LENGTH;
+
+    private TimePageLayout() {}
+}
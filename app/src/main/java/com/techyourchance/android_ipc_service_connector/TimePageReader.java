@@ -0,0 +1,128 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static com.techyourchance.android_ipc_service_connector.TimePageLayout.MAX_TEXT_LENGTH;
+import static com.techyourchance.android_ipc_service_connector.TimePageLayout.OFFSET_SEQUENCE;
+import static com.techyourchance.android_ipc_service_connector.TimePageLayout.OFFSET_TEXT;
+import static com.techyourchance.android_ipc_service_connector.TimePageLayout.OFFSET_TEXT_LENGTH;
+import static com.techyourchance.android_ipc_service_connector.TimePageLayout.OFFSET_TIME_MILLIS;
+import static com.techyourchance.android_ipc_service_connector.TimePageLayout.PAGE_SIZE;
+
+/**
+ * Reads the memory-mapped time page written by {@link TimePageWriter} (possibly in another
+ * process) without IPC. Reads are validated with writer's seqlock and retried if the page was
+ * modified concurrently.<br><br>
+ *
+ * This class is not thread-safe (it reuses an internal buffer) - threads should use their own
+ * readers. Loads are ordered by reads of a volatile field (see {@link TimePageWriter}). This class
+ * doesn't depend on Android APIs.
+ */
+public final class TimePageReader {
+
+    private static final int MAX_READ_ATTEMPTS = 100;
+
+    private final ByteBuffer mPage;
+
+    private final char[] mTextBuffer = new char[MAX_TEXT_LENGTH];
+
+    private volatile int mFence;
+
+    /**
+     * @param page buffer of at least {@link TimePageLayout#PAGE_SIZE} bytes
+     */
+    public TimePageReader(ByteBuffer page) {
+        if (page.capacity() < PAGE_SIZE) {
+            throw new IllegalArgumentException("page is too small: " + page.capacity());
+        }
+        mPage = page;
+    }
+
+    /**
+     * Map the page from the given channel. The mapping remains valid after the channel is closed.
+     */
+    public static TimePageReader map(FileChannel channel) throws IOException {
+        return new TimePageReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, PAGE_SIZE));
+    }
+
+    /**
+     * Read consistent contents of the page. This method doesn't allocate.
+     * @param value will be updated with the contents of the page if this method returns true
+     * @return true if the value was read; false if nothing was published yet, or if the page is
+     *         being written (e.g. the writer died in the middle of a write)
+     */
+    public boolean read(Value value) {
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            int sequenceBefore = mPage.getInt(OFFSET_SEQUENCE);
+            loadFence();
+
+            if (sequenceBefore == 0) {
+                return false;
+            }
+            if ((sequenceBefore & 1) != 0) {
+                continue; // write in progress
+            }
+
+            long timeMillis = mPage.getLong(OFFSET_TIME_MILLIS);
+            int textLength = mPage.getInt(OFFSET_TEXT_LENGTH);
+            if (textLength < 0 || textLength > MAX_TEXT_LENGTH) {
+                continue; // torn read
+            }
+            for (int i = 0; i < textLength; i++) {
+                mTextBuffer[i] = (char) (mPage.get(OFFSET_TEXT + i) & 0xFF);
+            }
+
+            loadFence();
+            int sequenceAfter = mPage.getInt(OFFSET_SEQUENCE);
+
+            if (sequenceBefore == sequenceAfter) {
+                value.mSequence = sequenceBefore;
+                value.mTimeMillis = timeMillis;
+                value.mTextLength = textLength;
+                System.arraycopy(mTextBuffer, 0, value.mText, 0, textLength);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int loadFence() {
+        return mFence;
+    }
+
+
+    /**
+     * Mutable holder of page's contents which can be reused between reads
+     */
+    public static final class Value {
+
+        private int mSequence;
+        private long mTimeMillis;
+        private final char[] mText = new char[MAX_TEXT_LENGTH];
+        private int mTextLength;
+
+        /**
+         * @return writer's sequence at the time of the read; changes with every write
+         */
+        public int getSequence() {
+            return mSequence;
+        }
+
+        public long getTimeMillis() {
+            return mTimeMillis;
+        }
+
+        /**
+         * @return buffer which holds the formatted time; valid up to {@link #getTextLength()}
+         */
+        public char[] getText() {
+            return mText;
+        }
+
+        public int getTextLength() {
+            return mTextLength;
+        }
+    }
+}
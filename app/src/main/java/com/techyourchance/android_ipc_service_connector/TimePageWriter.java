@@ -0,0 +1,97 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static com.techyourchance.android_ipc_service_connector.TimePageLayout.MAX_TEXT_LENGTH;
+import static com.techyourchance.android_ipc_service_connector.TimePageLayout.OFFSET_SEQUENCE;
+import static com.techyourchance.android_ipc_service_connector.TimePageLayout.OFFSET_TEXT;
+import static com.techyourchance.android_ipc_service_connector.TimePageLayout.OFFSET_TEXT_LENGTH;
+import static com.techyourchance.android_ipc_service_connector.TimePageLayout.OFFSET_TIME_MILLIS;
+import static com.techyourchance.android_ipc_service_connector.TimePageLayout.PAGE_SIZE;
+
+/**
+ * Publishes time into a memory-mapped time page (see {@link TimePageLayout}) which can be read
+ * by other processes without IPC using {@link TimePageReader}.<br><br>
+ *
+ * Writes are guarded by a seqlock: the sequence is incremented to an odd value before the page
+ * is modified, and to an even value afterwards, therefore readers can detect (and retry) torn
+ * reads. There MUST be a single writer per page, and this class is not thread-safe.<br><br>
+ *
+ * Explicit memory fences are not available on all supported API levels, therefore stores are
+ * ordered by writes to a volatile field (which are compiled with full barriers on ART and
+ * HotSpot). This class doesn't depend on Android APIs.
+ */
+public final class TimePageWriter {
+
+    private final ByteBuffer mPage;
+
+    private int mSequence;
+
+    private volatile int mFence;
+
+    /**
+     * @param page buffer of at least {@link TimePageLayout#PAGE_SIZE} bytes
+     */
+    public TimePageWriter(ByteBuffer page) {
+        if (page.capacity() < PAGE_SIZE) {
+            throw new IllegalArgumentException("page is too small: " + page.capacity());
+        }
+        mPage = page;
+
+        // the page might be reused after the previous writer died - possibly in the middle of
+        // a write, in which case the sequence is odd
+        int sequence = page.getInt(OFFSET_SEQUENCE);
+        mSequence = (sequence & 1) == 0 ? sequence : sequence + 1;
+    }
+
+    /**
+     * Map the given file (which is created or extended as needed) and create writer of the page
+     * it holds. The mapping remains valid after the file is closed.
+     */
+    public static TimePageWriter create(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            if (randomAccessFile.length() < PAGE_SIZE) {
+                randomAccessFile.setLength(PAGE_SIZE);
+            }
+            return new TimePageWriter(randomAccessFile.getChannel()
+                    .map(FileChannel.MapMode.READ_WRITE, 0, PAGE_SIZE));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Publish the given time and its formatted representation
+     * @param timeMillis time in milliseconds since epoch
+     * @param text buffer which holds the formatted time (ASCII chars only)
+     * @param offset the index of the first char of the formatted time in the buffer
+     * @param length the length of the formatted time (at most
+     *               {@link TimePageLayout#MAX_TEXT_LENGTH})
+     */
+    public void write(long timeMillis, char[] text, int offset, int length) {
+        if (length < 0 || length > MAX_TEXT_LENGTH) {
+            throw new IllegalArgumentException("invalid text length: " + length);
+        }
+
+        mPage.putInt(OFFSET_SEQUENCE, ++mSequence); // odd - write in progress
+        storeFence();
+
+        mPage.putLong(OFFSET_TIME_MILLIS, timeMillis);
+        mPage.putInt(OFFSET_TEXT_LENGTH, length);
+        for (int i = 0; i < length; i++) {
+            mPage.put(OFFSET_TEXT + i, (byte) text[offset + i]);
+        }
+
+        storeFence();
+        mPage.putInt(OFFSET_SEQUENCE, ++mSequence); // even - write completed
+    }
+
+    private void storeFence() {
+        mFence = 0;
+    }
+}
@@ -0,0 +1,203 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link IpcTracer} which records events into a fixed-size ring of preallocated arrays. Recording
+ * is lock-free and allocation-free - events are converted to strings only if a live
+ * {@link TraceSink} was provided, or when the buffer is dumped.<br><br>
+ *
+ * When the buffer wraps around, the oldest events are overwritten.
+ */
+public class TraceBuffer implements IpcTracer {
+
+    private static final long SLOT_BEING_WRITTEN = -1;
+
+    private final String mName;
+    private final TraceSink mLiveSink;
+
+    private final int mSlotsMask;
+
+    private final long[] mTimestamps;
+    private final long[] mThreadIds;
+    private final int[] mEvents;
+    private final int[] mArgs0;
+    private final int[] mArgs1;
+
+    /**
+     * Per-slot stamp: the sequence number of the event stored in the slot plus one, zero if the
+     * slot was never written, or {@link #SLOT_BEING_WRITTEN}. Dumps use the stamps in order to
+     * skip slots which are overwritten concurrently.
+     */
+    private final AtomicLongArray mStamps;
+
+    private final AtomicLong mNextSequence = new AtomicLong(0);
+
+    /**
+     * @param name the name which will prefix trace messages
+     * @param capacity the number of events retained by this buffer; must be a power of two
+     * @param liveSink if not null, each event will be formatted and passed to this sink
+     *                 immediately (in addition to being recorded)
+     */
+    public TraceBuffer(@NonNull String name, int capacity, @Nullable TraceSink liveSink) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+
+        mName = name;
+        mLiveSink = liveSink;
+        mSlotsMask = capacity - 1;
+
+        mTimestamps = new long[capacity];
+        mThreadIds = new long[capacity];
+        mEvents = new int[capacity];
+        mArgs0 = new int[capacity];
+        mArgs1 = new int[capacity];
+        mStamps = new AtomicLongArray(capacity);
+    }
+
+    @Override
+    public void trace(int event, int arg0, int arg1) {
+        long timestamp = System.nanoTime();
+        long threadId = Thread.currentThread().getId();
+
+        long sequence = mNextSequence.getAndIncrement();
+        int slot = (int) (sequence & mSlotsMask);
+
+        mStamps.set(slot, SLOT_BEING_WRITTEN);
+        mTimestamps[slot] = timestamp;
+        mThreadIds[slot] = threadId;
+        mEvents[slot] = event;
+        mArgs0[slot] = arg0;
+        mArgs1[slot] = arg1;
+        mStamps.set(slot, sequence + 1); // publishes the fields written above
+
+        if (mLiveSink != null) {
+            mLiveSink.onTraceMessage(formatEvent(timestamp, threadId, event, arg0, arg1));
+        }
+    }
+
+    /**
+     * Format the retained events (oldest first) and pass them to the given sink. Events which are
+     * overwritten while this method executes are skipped.
+     */
+    public void dump(@NonNull TraceSink sink) {
+        long endSequence = mNextSequence.get();
+        long startSequence = Math.max(0, endSequence - (mSlotsMask + 1));
+
+        for (long sequence = startSequence; sequence < endSequence; sequence++) {
+            int slot = (int) (sequence & mSlotsMask);
+
+            long stampBefore = mStamps.get(slot);
+            if (stampBefore != sequence + 1) {
+                continue;
+            }
+
+            long timestamp = mTimestamps[slot];
+            long threadId = mThreadIds[slot];
+            int event = mEvents[slot];
+            int arg0 = mArgs0[slot];
+            int arg1 = mArgs1[slot];
+
+            if (mStamps.get(slot) != stampBefore) {
+                continue;
+            }
+
+            sink.onTraceMessage(formatEvent(timestamp, threadId, event, arg0, arg1));
+        }
+    }
+
+    private String formatEvent(long timestamp, long threadId, int event, int arg0, int arg1) {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append(mName)
+                .append(" [time: ").append(timestamp)
+                .append("; thread: ").append(threadId)
+                .append("] ");
+
+        switch (event) {
+            case EVENT_STATE_CHANGED:
+                sb.append("state changed: ")
+                        .append(IpcServiceConnector.getStateName(arg0))
+                        .append(" -> ")
+                        .append(IpcServiceConnector.getStateName(arg1));
+                break;
+            case EVENT_WAIT_STARTED:
+                sb.append("wait started; target states: ")
+                        .append(IpcServiceConnector.getStatesMaskName(arg0));
+                break;
+            case EVENT_WAIT_BLOCKED:
+                sb.append("blocking waiting thread; target states: ")
+                        .append(IpcServiceConnector.getStatesMaskName(arg0));
+                break;
+            case EVENT_WAIT_FINISHED:
+                sb.append("wait finished; target states: ")
+                        .append(IpcServiceConnector.getStatesMaskName(arg0))
+                        .append("; result: ")
+                        .append(IpcServiceConnector.getWaitResultName(arg1));
+                break;
+            case EVENT_BIND:
+                sb.append(arg0 != 0 ? "service bound successfully" : "service binding failed");
+                break;
+            case EVENT_UNBIND:
+                sb.append(arg0 != 0 ? "service unbound" : "no bound IPC service");
+                break;
+            case EVENT_RECONNECT_SCHEDULED:
+                sb.append("reconnection attempt ").append(arg0)
+                        .append(" scheduled in ").append(arg1).append("ms");
+                break;
+            case EVENT_RECONNECT_GAVE_UP:
+                sb.append(arg0 == ReconnectScheduler.GIVE_UP_REASON_CRASH_LOOP ?
+                        "service is crash-looping" : "maximal number of attempts exceeded")
+                        .append(" - gave up reconnecting after ").append(arg1)
+                        .append(" failed attempts");
+                break;
+            case EVENT_BINDER_DIED:
+                sb.append("service's binder died");
+                break;
+            case EVENT_DEATH_DETECTION_LEAD:
+                sb.append("service disconnected; death was detected ")
+                        .append(arg0).append("us earlier");
+                break;
+            case EVENT_CIRCUIT_STATE_CHANGED:
+                sb.append("circuit breaker state changed: ")
+                        .append(CircuitBreaker.getStateName(arg0))
+                        .append(" -> ")
+                        .append(CircuitBreaker.getStateName(arg1));
+                break;
+            case EVENT_HEALTH_CHANGED:
+                sb.append(arg0 == 1 ? "connection degraded" : "connection healthy")
+                        .append("; consecutive bad probes: ").append(arg1);
+                break;
+            case EVENT_SERVICE_LIFECYCLE:
+                sb.append(getServiceCallbackName(arg0));
+                break;
+            default:
+                sb.append("unknown event: ").append(event)
+                        .append("; arg0: ").append(arg0)
+                        .append("; arg1: ").append(arg1);
+        }
+
+        return sb.toString();
+    }
+
+    private static String getServiceCallbackName(int serviceCallback) {
+        switch (serviceCallback) {
+            case SERVICE_CALLBACK_ON_CREATE:
+                return "onCreate()";
+            case SERVICE_CALLBACK_ON_DESTROY:
+                return "onDestroy()";
+            case SERVICE_CALLBACK_ON_BIND:
+                return "onBind()";
+            case SERVICE_CALLBACK_ON_UNBIND:
+                return "onUnbind()";
+            case SERVICE_CALLBACK_ON_REBIND:
+                return "onRebind()";
+            default:
+                return "unknown service callback: " + serviceCallback;
+        }
+    }
+}
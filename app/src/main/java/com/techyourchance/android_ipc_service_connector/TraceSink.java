@@ -0,0 +1,11 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Destination of human readable trace messages produced by {@link TraceBuffer}
+ */
+public interface TraceSink {
+
+    void onTraceMessage(@NonNull String message);
+}
@@ -0,0 +1,206 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BulkheadTest {
+
+    private static final long LONG_QUEUE_TIME = 10000; // ms
+    private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * Acquires a permit on a separate thread and holds it until released by the test
+     */
+    private static class Acquirer extends Thread {
+
+        private final Bulkhead mBulkhead;
+        private final long mDeadline;
+        private final List<Acquirer> mAcquisitionOrder;
+
+        private final AtomicInteger mResult = new AtomicInteger(-1);
+
+        private Acquirer(Bulkhead bulkhead, long deadline, List<Acquirer> acquisitionOrder) {
+            mBulkhead = bulkhead;
+            mDeadline = deadline;
+            mAcquisitionOrder = acquisitionOrder;
+        }
+
+        @Override
+        public void run() {
+            int result = mBulkhead.acquire(mDeadline);
+            if (result == Bulkhead.ACQUIRE_RESULT_ACQUIRED) {
+                synchronized (mAcquisitionOrder) {
+                    mAcquisitionOrder.add(this);
+                }
+            }
+            mResult.set(result);
+        }
+
+        private int awaitResult() throws InterruptedException {
+            join(TimeUnit.NANOSECONDS.toMillis(TIMEOUT));
+            return mResult.get();
+        }
+    }
+
+    private final List<Acquirer> mAcquisitionOrder = new ArrayList<>();
+    private final List<Acquirer> mAcquirers = new ArrayList<>();
+
+    @After
+    public void tearDown() throws InterruptedException {
+        for (Acquirer acquirer : mAcquirers) {
+            acquirer.interrupt();
+            acquirer.join();
+        }
+    }
+
+    @Test
+    public void acquire_belowLimit_acquiresImmediately() {
+        Bulkhead bulkhead = new Bulkhead(2, 0, 0, Bulkhead.REJECTION_POLICY_REJECT_NEWEST);
+
+        assertEquals(Bulkhead.ACQUIRE_RESULT_ACQUIRED, bulkhead.acquire(deadline()));
+        assertEquals(Bulkhead.ACQUIRE_RESULT_ACQUIRED, bulkhead.acquire(deadline()));
+        assertEquals(2, bulkhead.getInFlightCallsCount());
+
+        bulkhead.release();
+        bulkhead.release();
+        assertEquals(0, bulkhead.getInFlightCallsCount());
+    }
+
+    @Test
+    public void release_queuedCalls_handedOverInFifoOrder() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead(1, 3, LONG_QUEUE_TIME,
+                Bulkhead.REJECTION_POLICY_REJECT_NEWEST);
+        assertEquals(Bulkhead.ACQUIRE_RESULT_ACQUIRED, bulkhead.acquire(deadline()));
+        Acquirer first = startAcquirer(bulkhead, 1);
+        Acquirer second = startAcquirer(bulkhead, 2);
+        Acquirer third = startAcquirer(bulkhead, 3);
+
+        bulkhead.release();
+        assertEquals(Bulkhead.ACQUIRE_RESULT_ACQUIRED, first.awaitResult());
+        bulkhead.release();
+        assertEquals(Bulkhead.ACQUIRE_RESULT_ACQUIRED, second.awaitResult());
+        bulkhead.release();
+        assertEquals(Bulkhead.ACQUIRE_RESULT_ACQUIRED, third.awaitResult());
+
+        synchronized (mAcquisitionOrder) {
+            assertEquals(first, mAcquisitionOrder.get(0));
+            assertEquals(second, mAcquisitionOrder.get(1));
+            assertEquals(third, mAcquisitionOrder.get(2));
+        }
+        assertEquals(3, bulkhead.getMaxQueueDepth());
+        assertEquals(3, bulkhead.getQueueTime().getCount());
+    }
+
+    @Test
+    public void release_queuedCall_notOvertakenByNewCall() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead(1, 1, LONG_QUEUE_TIME,
+                Bulkhead.REJECTION_POLICY_REJECT_NEWEST);
+        assertEquals(Bulkhead.ACQUIRE_RESULT_ACQUIRED, bulkhead.acquire(deadline()));
+        Acquirer queued = startAcquirer(bulkhead, 1);
+
+        bulkhead.release();
+
+        // the permit was handed over - the number of calls in flight didn't change
+        assertEquals(1, bulkhead.getInFlightCallsCount());
+        assertEquals(Bulkhead.ACQUIRE_RESULT_ACQUIRED, queued.awaitResult());
+        assertEquals(Bulkhead.ACQUIRE_RESULT_REJECTED,
+                bulkhead.acquire(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10)));
+    }
+
+    @Test
+    public void acquire_rejectNewestQueueFull_rejectsNewCall() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead(1, 1, LONG_QUEUE_TIME,
+                Bulkhead.REJECTION_POLICY_REJECT_NEWEST);
+        assertEquals(Bulkhead.ACQUIRE_RESULT_ACQUIRED, bulkhead.acquire(deadline()));
+        Acquirer queued = startAcquirer(bulkhead, 1);
+
+        assertEquals(Bulkhead.ACQUIRE_RESULT_REJECTED, bulkhead.acquire(deadline()));
+
+        assertEquals(1, bulkhead.getRejectedCallsCount());
+        bulkhead.release();
+        assertEquals(Bulkhead.ACQUIRE_RESULT_ACQUIRED, queued.awaitResult());
+    }
+
+    @Test
+    public void acquire_rejectNewestNoQueue_rejectsImmediately() {
+        Bulkhead bulkhead = new Bulkhead(1, 0, LONG_QUEUE_TIME,
+                Bulkhead.REJECTION_POLICY_REJECT_NEWEST);
+        assertEquals(Bulkhead.ACQUIRE_RESULT_ACQUIRED, bulkhead.acquire(deadline()));
+
+        assertEquals(Bulkhead.ACQUIRE_RESULT_REJECTED, bulkhead.acquire(deadline()));
+        assertEquals(1, bulkhead.getRejectedCallsCount());
+    }
+
+    @Test
+    public void acquire_rejectOldestQueueFull_rejectsOldestQueuedCall()
+            throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead(1, 1, LONG_QUEUE_TIME,
+                Bulkhead.REJECTION_POLICY_REJECT_OLDEST);
+        assertEquals(Bulkhead.ACQUIRE_RESULT_ACQUIRED, bulkhead.acquire(deadline()));
+        Acquirer oldest = startAcquirer(bulkhead, 1);
+
+        Acquirer newest = startAcquirer(bulkhead, 1);
+
+        assertEquals(Bulkhead.ACQUIRE_RESULT_REJECTED, oldest.awaitResult());
+        assertEquals(1, bulkhead.getRejectedCallsCount());
+        bulkhead.release();
+        assertEquals(Bulkhead.ACQUIRE_RESULT_ACQUIRED, newest.awaitResult());
+    }
+
+    @Test
+    public void acquire_maxQueueTimePassed_rejected() {
+        Bulkhead bulkhead = new Bulkhead(1, 1, 10, Bulkhead.REJECTION_POLICY_REJECT_NEWEST);
+        assertEquals(Bulkhead.ACQUIRE_RESULT_ACQUIRED, bulkhead.acquire(deadline()));
+
+        assertEquals(Bulkhead.ACQUIRE_RESULT_REJECTED, bulkhead.acquire(deadline()));
+
+        assertEquals(0, bulkhead.getQueueDepth());
+        assertEquals(1, bulkhead.getRejectedCallsCount());
+    }
+
+    @Test
+    public void acquire_interruptedWhileQueued_returnsInterrupted() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead(1, 1, LONG_QUEUE_TIME,
+                Bulkhead.REJECTION_POLICY_REJECT_NEWEST);
+        assertEquals(Bulkhead.ACQUIRE_RESULT_ACQUIRED, bulkhead.acquire(deadline()));
+        Acquirer queued = startAcquirer(bulkhead, 1);
+
+        queued.interrupt();
+
+        assertEquals(Bulkhead.ACQUIRE_RESULT_INTERRUPTED, queued.awaitResult());
+        assertEquals(0, bulkhead.getQueueDepth());
+        bulkhead.release();
+        assertEquals(0, bulkhead.getInFlightCallsCount());
+    }
+
+    private static long deadline() {
+        return System.nanoTime() + TIMEOUT;
+    }
+
+    /**
+     * Start acquirer and wait until it is queued
+     * @param expectedQueueDepth the depth of the queue once the acquirer is queued
+     */
+    private Acquirer startAcquirer(Bulkhead bulkhead, int expectedQueueDepth)
+            throws InterruptedException {
+        Acquirer acquirer = new Acquirer(bulkhead, deadline(), mAcquisitionOrder);
+        mAcquirers.add(acquirer);
+        acquirer.start();
+
+        long deadline = deadline();
+        while (bulkhead.getQueueDepth() != expectedQueueDepth
+                || acquirer.getState() != Thread.State.TIMED_WAITING) {
+            assertTrue("acquirer wasn't queued", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+        return acquirer;
+    }
+}
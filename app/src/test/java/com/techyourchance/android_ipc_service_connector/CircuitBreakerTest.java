@@ -0,0 +1,208 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    private static final int WINDOW_SIZE = 4;
+    private static final long SLOW_CALL_DURATION = 100; // ms
+    private static final long OPEN_DURATION = 1; // ms
+
+    private static final long FAST_LATENCY = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW_LATENCY = TimeUnit.MILLISECONDS.toNanos(200);
+
+    @Test
+    public void closed_failuresBelowMinimumCalls_remainsClosed() {
+        CircuitBreaker breaker = new CircuitBreaker(WINDOW_SIZE, WINDOW_SIZE, 0.5,
+                SLOW_CALL_DURATION, 0.5, OPEN_DURATION);
+
+        for (int i = 0; i < WINDOW_SIZE - 1; i++) {
+            complete(breaker, false, FAST_LATENCY);
+        }
+
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void closed_failureRateReachesThreshold_opens() {
+        CircuitBreaker breaker = new CircuitBreaker(WINDOW_SIZE, WINDOW_SIZE, 0.5,
+                SLOW_CALL_DURATION, 1, 60000);
+
+        complete(breaker, true, FAST_LATENCY);
+        complete(breaker, false, FAST_LATENCY);
+        complete(breaker, true, FAST_LATENCY);
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+
+        complete(breaker, false, FAST_LATENCY);
+
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+        assertTrue(breaker.isOpen());
+        assertEquals(CircuitBreaker.NO_PERMISSION, breaker.tryAcquirePermission());
+        assertEquals(1, breaker.getRejectedCallsCount());
+    }
+
+    @Test
+    public void closed_slowCallRateReachesThreshold_opens() {
+        CircuitBreaker breaker = new CircuitBreaker(WINDOW_SIZE, WINDOW_SIZE, 1,
+                SLOW_CALL_DURATION, 0.5, 60000);
+
+        complete(breaker, true, SLOW_LATENCY);
+        complete(breaker, true, FAST_LATENCY);
+        complete(breaker, true, SLOW_LATENCY);
+        complete(breaker, true, FAST_LATENCY);
+
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void closed_slidingWindow_evictsOldestOutcomes() {
+        CircuitBreaker breaker = new CircuitBreaker(WINDOW_SIZE, WINDOW_SIZE, 0.75,
+                SLOW_CALL_DURATION, 1, 60000);
+
+        // the failures of the first calls are evicted by the following successes
+        complete(breaker, false, FAST_LATENCY);
+        complete(breaker, false, FAST_LATENCY);
+        for (int i = 0; i < WINDOW_SIZE; i++) {
+            complete(breaker, true, FAST_LATENCY);
+        }
+        complete(breaker, false, FAST_LATENCY);
+        complete(breaker, false, FAST_LATENCY);
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+
+        // 3 of the last 4 calls failed (but only 5 of 9 overall)
+        complete(breaker, false, FAST_LATENCY);
+
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void open_openDurationPassed_permitsSingleTrialCall() throws InterruptedException {
+        CircuitBreaker breaker = createOpenBreaker();
+        Thread.sleep(OPEN_DURATION * 5);
+        assertTrue(!breaker.isOpen());
+
+        long trial = breaker.tryAcquirePermission();
+
+        assertTrue(trial != CircuitBreaker.NO_PERMISSION);
+        assertEquals(CircuitBreaker.STATE_HALF_OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.NO_PERMISSION, breaker.tryAcquirePermission());
+    }
+
+    @Test
+    public void halfOpen_trialCallSucceeds_closes() throws InterruptedException {
+        CircuitBreaker breaker = createOpenBreaker();
+        Thread.sleep(OPEN_DURATION * 5);
+        long trial = breaker.tryAcquirePermission();
+
+        breaker.onCallCompleted(trial, true, FAST_LATENCY);
+
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquirePermission() != CircuitBreaker.NO_PERMISSION);
+    }
+
+    @Test
+    public void halfOpen_trialCallFails_opensAgain() throws InterruptedException {
+        CircuitBreaker breaker = createOpenBreaker();
+        Thread.sleep(OPEN_DURATION * 5);
+        long trial = breaker.tryAcquirePermission();
+
+        breaker.onCallCompleted(trial, false, FAST_LATENCY);
+
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void halfOpen_trialCallSlow_opensAgain() throws InterruptedException {
+        CircuitBreaker breaker = createOpenBreaker();
+        Thread.sleep(OPEN_DURATION * 5);
+        long trial = breaker.tryAcquirePermission();
+
+        breaker.onCallCompleted(trial, true, SLOW_LATENCY);
+
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void halfOpen_trialCallAbandoned_permitsAnotherTrialCall() throws InterruptedException {
+        CircuitBreaker breaker = createOpenBreaker();
+        Thread.sleep(OPEN_DURATION * 5);
+        long trial = breaker.tryAcquirePermission();
+
+        breaker.onCallAbandoned(trial);
+
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+        long secondTrial = breaker.tryAcquirePermission();
+        assertTrue(secondTrial != CircuitBreaker.NO_PERMISSION);
+        assertTrue(secondTrial != trial);
+        assertEquals(CircuitBreaker.STATE_HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void halfOpen_callPermittedBeforeOpening_doesNotCloseBreaker()
+            throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(WINDOW_SIZE, WINDOW_SIZE, 0.5,
+                SLOW_CALL_DURATION, 1, OPEN_DURATION);
+        long stalePermission = breaker.tryAcquirePermission();
+        for (int i = 0; i < WINDOW_SIZE; i++) {
+            complete(breaker, false, FAST_LATENCY);
+        }
+        Thread.sleep(OPEN_DURATION * 5);
+        long trial = breaker.tryAcquirePermission();
+
+        // the call which started while the breaker was closed completes during the trial
+        breaker.onCallCompleted(stalePermission, true, FAST_LATENCY);
+        breaker.onCallAbandoned(stalePermission);
+
+        assertEquals(CircuitBreaker.STATE_HALF_OPEN, breaker.getState());
+        breaker.onCallCompleted(trial, true, FAST_LATENCY);
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void closed_outcomesOfPreviousClosedPeriod_ignored() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(WINDOW_SIZE, WINDOW_SIZE, 0.5,
+                SLOW_CALL_DURATION, 1, OPEN_DURATION);
+        long stalePermission = breaker.tryAcquirePermission();
+        for (int i = 0; i < WINDOW_SIZE; i++) {
+            complete(breaker, false, FAST_LATENCY);
+        }
+        Thread.sleep(OPEN_DURATION * 5);
+        breaker.onCallCompleted(breaker.tryAcquirePermission(), true, FAST_LATENCY);
+
+        // a single stale failure must not count against the new window
+        breaker.onCallCompleted(stalePermission, false, FAST_LATENCY);
+        for (int i = 0; i < WINDOW_SIZE - 2; i++) {
+            complete(breaker, true, FAST_LATENCY);
+        }
+        complete(breaker, false, FAST_LATENCY);
+
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_minimumCallsAboveWindowSize_throws() {
+        new CircuitBreaker(WINDOW_SIZE, WINDOW_SIZE + 1, 0.5, SLOW_CALL_DURATION, 0.5,
+                OPEN_DURATION);
+    }
+
+    private static CircuitBreaker createOpenBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker(WINDOW_SIZE, WINDOW_SIZE, 0.5,
+                SLOW_CALL_DURATION, 0.5, OPEN_DURATION);
+        for (int i = 0; i < WINDOW_SIZE; i++) {
+            complete(breaker, false, FAST_LATENCY);
+        }
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+        return breaker;
+    }
+
+    private static void complete(CircuitBreaker breaker, boolean successful, long latency) {
+        long permission = breaker.tryAcquirePermission();
+        assertTrue(permission != CircuitBreaker.NO_PERMISSION);
+        breaker.onCallCompleted(permission, successful, latency);
+    }
+}
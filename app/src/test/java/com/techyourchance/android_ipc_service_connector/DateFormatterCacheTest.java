@@ -0,0 +1,91 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class DateFormatterCacheTest {
+
+    private static final String PATTERN = "MMM dd,yyyy HH:mm:ss";
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    @Test
+    public void parseLocale_nullOrEmpty_returnsDefaultLocale() {
+        assertEquals(Locale.getDefault(), DateFormatterCache.parseLocale(null));
+        assertEquals(Locale.getDefault(), DateFormatterCache.parseLocale(""));
+    }
+
+    @Test
+    public void parseLocale_languageOnly_returnsLanguage() {
+        assertEquals(new Locale("fr"), DateFormatterCache.parseLocale("fr"));
+    }
+
+    @Test
+    public void parseLocale_languageTagAndJavaName_returnLanguageAndRegion() {
+        assertEquals(Locale.US, DateFormatterCache.parseLocale("en-US"));
+        assertEquals(Locale.US, DateFormatterCache.parseLocale("en_US"));
+    }
+
+    @Test
+    public void parseLocale_withVariant_returnsVariant() {
+        assertEquals(new Locale("en", "US", "POSIX"),
+                DateFormatterCache.parseLocale("en_US_POSIX"));
+    }
+
+    @Test
+    public void parseLocale_withScript_skipsScript() {
+        assertEquals(Locale.TAIWAN, DateFormatterCache.parseLocale("zh-Hant-TW"));
+        assertEquals(new Locale("sr", "RS"), DateFormatterCache.parseLocale("sr-Latn-RS"));
+        assertEquals(new Locale("zh"), DateFormatterCache.parseLocale("zh-Hans"));
+    }
+
+    @Test
+    public void get_samePatternLocaleAndZone_returnsCachedFormatter() {
+        DateFormatterCache cache = new DateFormatterCache(2);
+
+        PatternDateFormatter first = cache.get(PATTERN, Locale.US, UTC);
+        PatternDateFormatter second = cache.get(PATTERN, Locale.US, UTC);
+
+        assertSame(first, second);
+        assertEquals(1, cache.getHitsCount());
+        assertEquals(1, cache.getMissesCount());
+    }
+
+    @Test
+    public void get_differentLocale_returnsDifferentFormatter() {
+        DateFormatterCache cache = new DateFormatterCache(2);
+
+        PatternDateFormatter us = cache.get(PATTERN, Locale.US, UTC);
+        PatternDateFormatter france = cache.get(PATTERN, Locale.FRANCE, UTC);
+
+        assertNotSame(us, france);
+        assertEquals(2, cache.getMissesCount());
+    }
+
+    @Test
+    public void get_cacheFull_evictsLeastRecentlyUsed() {
+        DateFormatterCache cache = new DateFormatterCache(2);
+        PatternDateFormatter us = cache.get(PATTERN, Locale.US, UTC);
+        cache.get(PATTERN, Locale.FRANCE, UTC);
+        cache.get(PATTERN, Locale.US, UTC); // FRANCE becomes the least recently used
+
+        cache.get(PATTERN, Locale.GERMANY, UTC);
+
+        assertEquals(2, cache.getSize());
+        assertSame(us, cache.get(PATTERN, Locale.US, UTC));
+        long missesCount = cache.getMissesCount();
+        cache.get(PATTERN, Locale.FRANCE, UTC);
+        assertEquals(missesCount + 1, cache.getMissesCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_nonPositiveMaxSize_throws() {
+        new DateFormatterCache(0);
+    }
+}
@@ -0,0 +1,107 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Measures the duration and the allocations of {@link FastDateFormatter} calls against
+ * {@link SimpleDateFormat} on the JVM. The results depend on the machine and on JIT, therefore
+ * nothing is asserted, and the benchmark is excluded from regular test runs - run
+ * {@link #main(String[])} (or the ignored test from IDE) in order to get the report.<br><br>
+ *
+ * Allocations are measured with {@link com.sun.management.ThreadMXBean}, which is supported by
+ * HotSpot based JVMs only.
+ */
+@Ignore("manual benchmark - run main()")
+public class FastDateFormatterBenchmark {
+
+    private static final String PATTERN = "MMM dd,yyyy HH:mm:ss";
+
+    private static final int WARMUP_ITERATIONS = 200000;
+    private static final int FAST_ITERATIONS = 2000000;
+    private static final int SIMPLE_ITERATIONS = 200000;
+
+    /**
+     * Per call averages of a single measurement
+     */
+    private static class Measurement {
+
+        private final double mNanosPerCall;
+        private final double mBytesPerCall;
+
+        private Measurement(double nanosPerCall, double bytesPerCall) {
+            mNanosPerCall = nanosPerCall;
+            mBytesPerCall = bytesPerCall;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.1f ns/call, %.1f bytes/call", mNanosPerCall, mBytesPerCall);
+        }
+    }
+
+    private final com.sun.management.ThreadMXBean mThreadMxBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // consumed results, such that the loops can't be optimized away
+    private long mSink;
+
+    public static void main(String[] args) {
+        new FastDateFormatterBenchmark().benchmark();
+    }
+
+    @Test
+    public void benchmark() {
+        mThreadMxBean.setThreadAllocatedMemoryEnabled(true);
+
+        FastDateFormatter fastDateFormatter = new FastDateFormatter();
+        SimpleDateFormat simpleDateFormat = new SimpleDateFormat(PATTERN);
+        long now = System.currentTimeMillis();
+
+        measureFastDateFormatter(fastDateFormatter, now, WARMUP_ITERATIONS);
+        measureSimpleDateFormat(simpleDateFormat, now, WARMUP_ITERATIONS);
+
+        Measurement fast = measureFastDateFormatter(fastDateFormatter, now, FAST_ITERATIONS);
+        Measurement simple = measureSimpleDateFormat(simpleDateFormat, now, SIMPLE_ITERATIONS);
+
+        System.out.println("FastDateFormatter: " + fast);
+        System.out.println("SimpleDateFormat: " + simple);
+        System.out.println("(sink: " + mSink + ")");
+    }
+
+    private Measurement measureFastDateFormatter(FastDateFormatter formatter, long startMillis,
+                                                 int iterations) {
+        char[] buffer = new char[formatter.getMaxLength()];
+        long startBytes = getAllocatedBytes();
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            // the time advances, such that the cached day prefix is recomputed now and then
+            mSink += formatter.format(startMillis + i * 10L, buffer, 0);
+        }
+        return toMeasurement(startNanos, startBytes, iterations);
+    }
+
+    private Measurement measureSimpleDateFormat(SimpleDateFormat format, long startMillis,
+                                                int iterations) {
+        long startBytes = getAllocatedBytes();
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            mSink += format.format(new Date(startMillis + i * 10L)).length();
+        }
+        return toMeasurement(startNanos, startBytes, iterations);
+    }
+
+    private Measurement toMeasurement(long startNanos, long startBytes, int iterations) {
+        long nanos = System.nanoTime() - startNanos;
+        long bytes = getAllocatedBytes() - startBytes;
+        return new Measurement((double) nanos / iterations, (double) bytes / iterations);
+    }
+
+    private long getAllocatedBytes() {
+        return mThreadMxBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,78 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+public class FastDateFormatterTest {
+
+    private static final String PATTERN = "MMM dd,yyyy HH:mm:ss";
+
+    /**
+     * Zones with DST, with half-hour and quarter-hour offsets, and with half-hour DST shifts
+     */
+    private static final String[] TIME_ZONES = new String[] {
+            "UTC",
+            "America/New_York",
+            "Asia/Kolkata",
+            "America/St_Johns",
+            "Pacific/Chatham",
+            "Australia/Lord_Howe"
+    };
+
+    private static final Locale[] LOCALES = new Locale[] {
+            Locale.US,
+            Locale.FRANCE,
+            Locale.JAPAN
+    };
+
+    /**
+     * The start of the Gregorian calendar (Oct 15, 1582 UTC)
+     */
+    private static final long GREGORIAN_CUTOVER = -12219292800000L;
+
+    private static final int SAMPLES_PER_CASE = 20000;
+
+    @Test
+    public void format_randomTimes_sameAsSimpleDateFormat() {
+        Random random = new Random(1);
+        for (String timeZoneId : TIME_ZONES) {
+            TimeZone timeZone = TimeZone.getTimeZone(timeZoneId);
+            for (Locale locale : LOCALES) {
+                SimpleDateFormat simpleDateFormat = new SimpleDateFormat(PATTERN, locale);
+                simpleDateFormat.setTimeZone(timeZone);
+                FastDateFormatter fastDateFormatter = new FastDateFormatter(timeZone, locale);
+
+                for (int i = 0; i < SAMPLES_PER_CASE; i++) {
+                    long millis = i % 2 == 0 ?
+                            // around the present
+                            (long) (random.nextDouble() * 4e12 - 5e11) :
+                            // anywhere in the supported range after the cutover
+                            GREGORIAN_CUTOVER + (long) (random.nextDouble() * 4e13);
+
+                    assertEquals(timeZoneId + " " + locale + " " + millis,
+                            simpleDateFormat.format(new Date(millis)),
+                            fastDateFormatter.format(millis));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void format_intoBuffer_sameAsString() {
+        FastDateFormatter fastDateFormatter =
+                new FastDateFormatter(TimeZone.getTimeZone("America/New_York"), Locale.US);
+        char[] buffer = new char[fastDateFormatter.getMaxLength() + 3];
+        long millis = 1500000000000L;
+
+        int length = fastDateFormatter.format(millis, buffer, 3);
+
+        assertEquals(fastDateFormatter.format(millis), new String(buffer, 3, length));
+    }
+}
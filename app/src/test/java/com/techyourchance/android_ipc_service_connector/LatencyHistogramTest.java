@@ -0,0 +1,122 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void snapshot_nothingRecorded_returnsZeros() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().getSnapshot();
+
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMean());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.getPercentile(50));
+        assertEquals(0, snapshot.getPercentile(100));
+    }
+
+    @Test
+    public void snapshot_recordedValues_countMeanAndMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        histogram.record(2000);
+        histogram.record(6000);
+
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+
+        assertEquals(3, snapshot.getCount());
+        assertEquals(3000, snapshot.getMean());
+        assertEquals(6000, snapshot.getMax());
+    }
+
+    @Test
+    public void getPercentile_returnsUpperBoundOfBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1000); // bucket [512, 1024)
+        }
+        histogram.record(1000000); // bucket [524288, 1048576)
+
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+
+        assertEquals(1023, snapshot.getPercentile(50));
+        assertEquals(1023, snapshot.getPercentile(99));
+        assertEquals(1000000, snapshot.getPercentile(99.5));
+        assertEquals(1000000, snapshot.getPercentile(100));
+    }
+
+    @Test
+    public void getPercentile_accurateUpToFactorOfTwo() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long latency = 1; latency <= 1000000; latency++) {
+            histogram.record(latency);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+
+        double[] percentiles = new double[] {1, 10, 50, 90, 99, 99.9};
+        for (double percentile : percentiles) {
+            long exact = (long) Math.ceil(1000000 * percentile / 100);
+            long estimate = snapshot.getPercentile(percentile);
+            assertTrue("p" + percentile + ": " + estimate,
+                    estimate >= exact && estimate < 2 * exact);
+        }
+    }
+
+    @Test
+    public void getPercentile_neverExceedsMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3000); // bucket [2048, 4096)
+
+        assertEquals(3000, histogram.getSnapshot().getPercentile(50));
+    }
+
+    @Test
+    public void record_negativeLatency_recordedAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+
+        assertEquals(1, snapshot.getCount());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.getPercentile(100));
+    }
+
+    @Test
+    public void record_concurrentThreads_noLostValues() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int threadsCount = 4;
+        final int recordsPerThread = 100000;
+
+        Thread[] threads = new Thread[threadsCount];
+        for (int i = 0; i < threadsCount; i++) {
+            final long latency = (i + 1) * 1000;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < recordsPerThread; j++) {
+                        histogram.record(latency);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(threadsCount * recordsPerThread, snapshot.getCount());
+        assertEquals(2500, snapshot.getMean());
+        assertEquals(4000, snapshot.getMax());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getPercentile_zero_throws() {
+        new LatencyHistogram().getSnapshot().getPercentile(0);
+    }
+}
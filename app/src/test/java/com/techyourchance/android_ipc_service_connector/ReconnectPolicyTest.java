@@ -0,0 +1,114 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReconnectPolicyTest {
+
+    private static final long CONNECTION_TIMEOUT = 5000;
+    private static final long INITIAL_BACKOFF = 500;
+    private static final long MAX_BACKOFF = 30000;
+
+    /**
+     * Random whose doubles are fixed, such that the extremes of the jitter can be tested
+     */
+    private static class FixedRandom extends Random {
+
+        private final double mValue;
+
+        private FixedRandom(double value) {
+            mValue = value;
+        }
+
+        @Override
+        public double nextDouble() {
+            return mValue;
+        }
+    }
+
+    @Test
+    public void getBackoff_noJitter_doublesUpToMaxBackoff() {
+        ReconnectPolicy policy = createPolicy(0);
+        Random random = new Random(0);
+
+        assertEquals(500, policy.getBackoff(0, random));
+        assertEquals(1000, policy.getBackoff(1, random));
+        assertEquals(2000, policy.getBackoff(2, random));
+        assertEquals(16000, policy.getBackoff(5, random));
+        assertEquals(MAX_BACKOFF, policy.getBackoff(6, random));
+        assertEquals(MAX_BACKOFF, policy.getBackoff(7, random));
+    }
+
+    @Test
+    public void getBackoff_attemptsBeyondShiftRange_returnMaxBackoff() {
+        ReconnectPolicy policy = createPolicy(0);
+        Random random = new Random(0);
+
+        assertEquals(MAX_BACKOFF, policy.getBackoff(29, random));
+        assertEquals(MAX_BACKOFF, policy.getBackoff(30, random));
+        assertEquals(MAX_BACKOFF, policy.getBackoff(63, random));
+        assertEquals(MAX_BACKOFF, policy.getBackoff(64, random));
+        assertEquals(MAX_BACKOFF, policy.getBackoff(Integer.MAX_VALUE, random));
+    }
+
+    @Test
+    public void getBackoff_jitterExtremes_boundBackoff() {
+        ReconnectPolicy policy = createPolicy(0.5);
+
+        assertEquals(2000, policy.getBackoff(2, new FixedRandom(0)));
+        long minimalBackoff = policy.getBackoff(2, new FixedRandom(0.999999));
+        assertTrue(minimalBackoff >= 1000 && minimalBackoff <= 1001);
+    }
+
+    @Test
+    public void getBackoff_randomJitter_withinBounds() {
+        ReconnectPolicy policy = createPolicy(0.25);
+        Random random = new Random(42);
+
+        for (int attempt = 0; attempt < 10; attempt++) {
+            long backoff = Math.min(MAX_BACKOFF, INITIAL_BACKOFF << attempt);
+            for (int i = 0; i < 1000; i++) {
+                long jitteredBackoff = policy.getBackoff(attempt, random);
+                assertTrue(jitteredBackoff <= backoff);
+                assertTrue(jitteredBackoff >= backoff - backoff / 4);
+            }
+        }
+    }
+
+    @Test
+    public void getBackoff_fullJitter_spreadsDelays() {
+        ReconnectPolicy policy = createPolicy(1);
+        Random random = new Random(42);
+
+        long minBackoff = Long.MAX_VALUE;
+        long maxBackoff = Long.MIN_VALUE;
+        for (int i = 0; i < 1000; i++) {
+            long backoff = policy.getBackoff(0, random);
+            minBackoff = Math.min(minBackoff, backoff);
+            maxBackoff = Math.max(maxBackoff, backoff);
+        }
+
+        assertTrue(minBackoff >= 0 && minBackoff < INITIAL_BACKOFF / 4);
+        assertTrue(maxBackoff <= INITIAL_BACKOFF && maxBackoff > INITIAL_BACKOFF * 3 / 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_jitterFactorAboveOne_throws() {
+        createPolicy(1.5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_maxBackoffBelowInitialBackoff_throws() {
+        new ReconnectPolicy(CONNECTION_TIMEOUT, INITIAL_BACKOFF, INITIAL_BACKOFF - 1, 0, 10, 5,
+                60000);
+    }
+
+    private static ReconnectPolicy createPolicy(double jitterFactor) {
+        return new ReconnectPolicy(CONNECTION_TIMEOUT, INITIAL_BACKOFF, MAX_BACKOFF, jitterFactor,
+                10, 5, 60000);
+    }
+}
@@ -0,0 +1,114 @@
+package com.techyourchance.android_ipc_service_connector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimePageTest {
+
+    private static final int WRITES_COUNT = 1000000;
+
+    private File mPageFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mPageFile = File.createTempFile("time_page", ".bin");
+        assertTrue(mPageFile.delete());
+    }
+
+    @After
+    public void tearDown() {
+        mPageFile.delete();
+    }
+
+    @Test
+    public void read_nothingWritten_returnsFalse() throws IOException {
+        TimePageWriter.create(mPageFile);
+        TimePageReader reader = mapReader();
+
+        assertFalse(reader.read(new TimePageReader.Value()));
+    }
+
+    @Test
+    public void read_afterWrite_returnsWrittenValue() throws IOException {
+        TimePageWriter writer = TimePageWriter.create(mPageFile);
+        TimePageReader reader = mapReader();
+        TimePageReader.Value value = new TimePageReader.Value();
+
+        writer.write(1234, "abc".toCharArray(), 0, 3);
+
+        assertTrue(reader.read(value));
+        assertEquals(1234, value.getTimeMillis());
+        assertEquals("abc", new String(value.getText(), 0, value.getTextLength()));
+    }
+
+    @Test
+    public void read_concurrentWrites_noTornReads() throws Exception {
+        final TimePageWriter writer = TimePageWriter.create(mPageFile);
+        TimePageReader reader = mapReader();
+        TimePageReader.Value value = new TimePageReader.Value();
+        final FastDateFormatter formatter = new FastDateFormatter();
+        final AtomicBoolean writerDone = new AtomicBoolean(false);
+
+        Thread writerThread = new Thread() {
+            @Override
+            public void run() {
+                char[] text = new char[formatter.getMaxLength()];
+                for (long i = 0; i < WRITES_COUNT; i++) {
+                    long timeMillis = i * 1000;
+                    writer.write(timeMillis, text, 0, formatter.format(timeMillis, text, 0));
+                }
+                writerDone.set(true);
+            }
+        };
+        writerThread.start();
+
+        long successfulReads = 0;
+        while (!writerDone.get()) {
+            if (reader.read(value)) {
+                successfulReads++;
+                // the text must correspond to the time written along with it
+                assertEquals(formatter.format(value.getTimeMillis()),
+                        new String(value.getText(), 0, value.getTextLength()));
+            }
+        }
+        writerThread.join();
+
+        assertTrue(successfulReads > 0);
+        assertTrue(reader.read(value));
+        assertEquals((WRITES_COUNT - 1) * 1000L, value.getTimeMillis());
+    }
+
+    @Test
+    public void read_writerRestartedOverSameFile_returnsNewValue() throws IOException {
+        TimePageWriter writer = TimePageWriter.create(mPageFile);
+        TimePageReader reader = mapReader();
+        TimePageReader.Value value = new TimePageReader.Value();
+        writer.write(1000, "old".toCharArray(), 0, 3);
+
+        TimePageWriter restartedWriter = TimePageWriter.create(mPageFile);
+        restartedWriter.write(2000, "new".toCharArray(), 0, 3);
+
+        assertTrue(reader.read(value));
+        assertEquals(2000, value.getTimeMillis());
+        assertEquals("new", new String(value.getText(), 0, value.getTextLength()));
+    }
+
+    private TimePageReader mapReader() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mPageFile, "r");
+        try {
+            return TimePageReader.map(file.getChannel());
+        } finally {
+            file.close();
+        }
+    }
+}